@@ -0,0 +1,58 @@
+package miniplc0java.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.ast.Ast;
+import miniplc0java.bench.SourceGenerator;
+import miniplc0java.error.CompileError;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.Tokenizer;
+
+/**
+ * Analyser.analyse 在不同大小的生成程序上的时间，token 事先解析好，只测语法分析
+ * <p>
+ * 每个函数大约 90 个 token，时间应该和函数个数成正比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyserBenchmark {
+    /** 函数个数 */
+    @Param({ "10", "100", "1000", "10000" })
+    public int functions;
+
+    private TokenBuffer tokens;
+
+    @Setup
+    public void setup() throws CompileError {
+        var sb = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            SourceGenerator.appendFunction(sb, i);
+        }
+        tokens = new Tokenizer(new StringIter(sb.toString())).tokenizeAll();
+    }
+
+    @Benchmark
+    public Ast analyse() throws CompileError {
+        var analyser = new Analyser(tokens);
+        analyser.analyse();
+        return analyser.getAst();
+    }
+}
@@ -0,0 +1,62 @@
+package miniplc0java.jmh;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import miniplc0java.bench.VmBenchmark;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+import miniplc0java.vm.VmOutput;
+
+/**
+ * MiniVm.Run 每条指令的时间，程序是 VmBenchmark.arithmetic，加载（和编译执行时的翻译）在 Setup 里做完
+ * <p>
+ * 每次 Run 都从空栈开始，跑完栈也是空的。编译执行时一段里的常量运算会被 HotSpot 折叠掉，
+ * 得到的是每条源指令摊下来的时间，不是每条都真的执行了一次
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MiniVmBenchmark {
+    private static final int REPEAT = 10000;
+    // arithmetic(n) 有 10 * n + 2 条指令
+    private static final int INSTRUCTIONS = 10 * REPEAT + 2;
+
+    @Param({ "INTERPRETER", "COMPILED" })
+    public Engine engine;
+
+    private MiniVm vm;
+
+    @Setup
+    public void setup() {
+        var out = OutputStream.nullOutputStream();
+        vm = new MiniVm(VmBenchmark.arithmetic(REPEAT), new PrintStream(out), engine);
+        // WRT 不分配，-prof gc 看到的就只有执行本身
+        vm.setOutput(new VmOutput(out));
+        // 编译执行第一次 Run 时翻译
+        vm.Run();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public void run() {
+        vm.Run();
+    }
+}
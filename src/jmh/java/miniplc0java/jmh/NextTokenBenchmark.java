@@ -0,0 +1,52 @@
+package miniplc0java.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import miniplc0java.bench.SourceGenerator;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+
+/**
+ * Tokenizer.nextToken 每次调用的时间，也就是每个 token 的时间
+ * <p>
+ * 读到 EOF 之后从头再来，重新开始的开销摊在一兆字符的输入上
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextTokenBenchmark {
+    private String source;
+    private Tokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        source = SourceGenerator.generate(1 << 20);
+        tokenizer = new Tokenizer(new StringIter(source));
+    }
+
+    @Benchmark
+    public Token nextToken() throws TokenizeError {
+        var token = tokenizer.nextToken();
+        if (token.getTokenType() == TokenType.EOF) {
+            tokenizer = new Tokenizer(new StringIter(source));
+        }
+        return token;
+    }
+}
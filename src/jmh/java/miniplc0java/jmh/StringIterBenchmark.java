@@ -0,0 +1,76 @@
+package miniplc0java.jmh;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import miniplc0java.bench.SourceGenerator;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.StringIter;
+
+/**
+ * StringIter 逐个字符读完整个输入，每个字符多少纳秒
+ * <p>
+ * string 是内存里的字符串，reader 是流式读取，mapped 是映射进内存的 UTF-8 字节
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringIterBenchmark {
+    private static final int CHARS = 1 << 20;
+
+    @Param({ "string", "reader", "mapped" })
+    public String input;
+
+    private String source;
+    private ByteBuffer bytes;
+
+    @Setup
+    public void setup() {
+        // 生成的程序只有 ASCII，字节数和字符数一样
+        source = SourceGenerator.generate(CHARS).substring(0, CHARS);
+        bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private StringIter open() {
+        switch (input) {
+            case "string":
+                return new StringIter(source);
+            case "reader":
+                return new StringIter(new StringReader(source));
+            default:
+                return new MappedStringIter(bytes.duplicate());
+        }
+    }
+
+    /**
+     * 读完整个输入，返回所有字符的和，免得被优化掉
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public long readAll() {
+        var iter = open();
+        long sum = 0;
+        while (!iter.isEOF()) {
+            sum += iter.nextChar();
+        }
+        return sum;
+    }
+}
@@ -1,25 +1,43 @@
 package miniplc0java;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
 
 import miniplc0java.analyser.Analyser;
 import miniplc0java.error.CompileError;
-import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.InstructionSink;
+import miniplc0java.instruction.ListSink;
+import miniplc0java.instruction.ObjectFile;
+import miniplc0java.instruction.ObjectFileSink;
+import miniplc0java.instruction.TextSink;
+import miniplc0java.optimizer.Optimizer;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.ParallelTokenizer;
 import miniplc0java.tokenizer.StringIter;
-import miniplc0java.tokenizer.Token;
-import miniplc0java.tokenizer.TokenType;
 import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.LineWriter;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+import miniplc0java.vm.VmOutput;
+import miniplc0java.vm.VmSink;
 
 import net.sourceforge.argparse4j.*;
+import net.sourceforge.argparse4j.helper.HelpScreenException;
 import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentAction;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
@@ -27,105 +45,363 @@ import net.sourceforge.argparse4j.inf.Namespace;
 
 public class App {
     public static void main(String[] args) throws CompileError {
+        if (args.length > 0 && args[0].equals("--server")) {
+            CompileServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--client")) {
+            System.exit(CompileClient.main(Arrays.copyOfRange(args, 1, args.length)));
+            return;
+        }
+        int exitCode = run(args, Path.of(""), System.in, System.out, System.err);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    /**
+     * 按命令行参数做一次编译，标准输入输出和工作目录都由调用者给出，main 和编译服务器共用
+     *
+     * @param cwd 相对路径相对于这里
+     * @return 进程的退出码
+     */
+    static int run(String[] args, Path cwd, InputStream stdin, PrintStream stdout, PrintStream stderr) {
         var argparse = buildArgparse();
         Namespace result;
         try {
             result = argparse.parseArgs(args);
+        } catch (HelpScreenException e) {
+            // 帮助写到调用者给的 stdout，编译服务器上才能带回给客户端
+            argparse.printHelp(new PrintWriter(stdout, true));
+            return 0;
         } catch (ArgumentParserException e1) {
-            argparse.handleError(e1);
-            return;
+            argparse.handleError(e1, new PrintWriter(stderr, true));
+            return 0;
+        }
+
+        if (!result.getBoolean("tokenize") && !result.getBoolean("analyse") && !result.getBoolean("run")) {
+            stderr.println("Please specify either '--analyse', '--tokenize' or '--run'.");
+            return 3;
+        }
+        if (result.getBoolean("batch")) {
+            if (result.getBoolean("binary") || result.getBoolean("run")) {
+                stderr.println("'--binary' and '--run' cannot be used in batch mode.");
+                return 3;
+            }
+            return BatchCompiler.run(result, cwd, stdout, stderr);
+        }
+        if (result.getBoolean("run") && !result.getBoolean("analyse")) {
+            return runObjectFile(result, cwd, stdin, stdout, stderr);
         }
 
         var inputFileName = result.getString("input");
-        var outputFileName = result.getString("asm");
+        var outputFileName = result.getString("output");
 
-        InputStream input;
+        StringIter iter;
         if (inputFileName.equals("-")) {
-            input = System.in;
+            iter = new StringIter(new InputStreamReader(stdin, StandardCharsets.UTF_8));
         } else {
             try {
-                input = new FileInputStream(inputFileName);
-            } catch (FileNotFoundException e) {
-                System.err.println("Cannot find input file.");
-                e.printStackTrace();
-                System.exit(2);
-                return;
+                iter = openInputFile(cwd.resolve(inputFileName));
+            } catch (IOException e) {
+                stderr.println("Cannot find input file.");
+                e.printStackTrace(stderr);
+                return 2;
             }
         }
 
-        PrintStream output;
-        if (outputFileName.equals("-")) {
-            output = System.out;
+        boolean parallel = result.getBoolean("parallel");
+        var optimizer = new Optimizer(result.getInt("optimize"));
+        int exitCode;
+        if (result.getBoolean("run")) {
+            exitCode = runSource(iter, parallel, optimizer, engine(result), cwd, outputFileName, stdout, stderr);
+        } else if (result.getBoolean("binary") && !result.getBoolean("tokenize")) {
+            exitCode = writeObjectFile(iter, parallel, optimizer, cwd, outputFileName, stdout, stderr);
         } else {
-            try {
-                output = new PrintStream(new FileOutputStream(outputFileName));
-            } catch (FileNotFoundException e) {
-                System.err.println("Cannot open output file.");
-                e.printStackTrace();
-                System.exit(2);
-                return;
+            exitCode = writeText(iter, result.getBoolean("tokenize"), parallel, optimizer, cwd, outputFileName,
+                    stdout, stderr);
+        }
+        if (result.getBoolean("opt_report")) {
+            stderr.println(optimizer.report());
+        }
+        return exitCode;
+    }
+
+    /**
+     * 编译一个输入，结果写到 output 里
+     * <p>
+     * 结果边生成边写：-t 每解析出一个 token、-l 每分析完一个函数就写进一个大的缓冲区，缓冲区满了才写到 output。
+     * 出错时缓冲区里剩下的丢掉，但之前已经写出去的部分会留在 output 里，由调用者丢掉
+     *
+     * @param tokenize  只做词法分析（-t），否则做语法分析（-l）
+     * @param optimizer 语法分析生成的指令经过它优化之后再输出
+     * @throws CompileError 如果编译有错误则抛出
+     */
+    static void compile(StringIter iter, boolean tokenize, boolean parallel, Optimizer optimizer,
+            PrintStream output) throws CompileError {
+        var out = new LineWriter(output);
+        if (tokenize) {
+            // tokenize
+            if (parallel && iter instanceof MappedStringIter) {
+                ParallelTokenizer.tokenize((MappedStringIter) iter).writeTo(out);
+            } else {
+                new Tokenizer(iter).writeAll(out);
             }
+            out.flush();
+        } else {
+            // analyze，TextSink 在 finish 时 flush
+            analyse(iter, parallel, optimizer, new TextSink(out));
+        }
+    }
+
+    /**
+     * 语法分析，生成的指令优化之后发给 sink
+     * <p>
+     * 一遍完成：边解析 token 边分析，不留语法树，每分析完一个函数就发给 sink，内存占用和输入大小无关。
+     * 只有并行解析（-j）时先把整个文件的 token 解析出来
+     */
+    static void analyse(StringIter iter, boolean parallel, Optimizer optimizer, InstructionSink sink)
+            throws CompileError {
+        Analyser analyser;
+        if (parallel && iter instanceof MappedStringIter) {
+            analyser = new Analyser(ParallelTokenizer.tokenize((MappedStringIter) iter), optimizer.wrap(sink));
+        } else {
+            analyser = new Analyser(new Tokenizer(iter), optimizer.wrap(sink));
         }
+        analyser.setKeepAst(false);
+        analyser.analyse();
+    }
 
-        Scanner scanner;
-        scanner = new Scanner(input);
-        var iter = new StringIter(scanner);
-        var tokenizer = tokenize(iter);
+    /**
+     * 输出到文件，"-" 是标准输出
+     */
+    private static PrintStream openOutput(Path cwd, String outputFileName, PrintStream stdout)
+            throws FileNotFoundException {
+        if (outputFileName.equals("-")) {
+            return stdout;
+        }
+        return new PrintStream(new FileOutputStream(cwd.resolve(outputFileName).toFile()));
+    }
 
-        if (result.getBoolean("tokenize")) {
-            // tokenize
-            var tokens = new ArrayList<Token>();
+    private static int writeText(StringIter iter, boolean tokenize, boolean parallel, Optimizer optimizer, Path cwd,
+            String outputFileName, PrintStream stdout, PrintStream stderr) {
+        PrintStream output;
+        try {
+            output = openOutput(cwd, outputFileName, stdout);
+        } catch (FileNotFoundException e) {
+            stderr.println("Cannot open output file.");
+            e.printStackTrace(stderr);
+            return 2;
+        }
+
+        boolean failed = false;
+        try {
+            compile(iter, tokenize, parallel, optimizer, output);
+        } catch (Exception e) {
+            // 遇到错误不输出，直接退出
+            stderr.println(e);
+            failed = true;
+        } finally {
+            if (output != stdout) {
+                output.close();
+            }
+        }
+        if (failed && output != stdout) {
+            // 已经写出去的函数丢掉，只留下一个空文件
+            try {
+                new FileOutputStream(cwd.resolve(outputFileName).toFile()).close();
+            } catch (IOException e) {
+                e.printStackTrace(stderr);
+                return 2;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 语法分析的结果写成二进制的目标文件（-l --binary），写文件时每分析完一个函数就写出去
+     */
+    private static int writeObjectFile(StringIter iter, boolean parallel, Optimizer optimizer, Path cwd,
+            String outputFileName, PrintStream stdout, PrintStream stderr) {
+        if (outputFileName.equals("-")) {
+            // 标准输出不能回头填文件头，整个程序留在内存里，成功之后一次写出
+            var sink = new ListSink();
             try {
-                while (true) {
-                    var token = tokenizer.nextToken();
-                    if (token.getTokenType().equals(TokenType.EOF)) {
-                        break;
-                    }
-                    tokens.add(token);
-                }
+                analyse(iter, parallel, optimizer, sink);
             } catch (Exception e) {
-                // 遇到错误不输出，直接退出
-                System.err.println(e);
-                System.exit(0);
-                return;
+                stderr.println(e);
+                return 0;
             }
-            for (Token token : tokens) {
-                output.println(token.toString());
+            try {
+                ObjectFile.write(sink.getInstructions(), Channels.newChannel(stdout));
+                stdout.flush();
+            } catch (IOException e) {
+                e.printStackTrace(stderr);
+                return 2;
             }
-        } else if (result.getBoolean("analyse")) {
-            // analyze
-            var analyzer = new Analyser(tokenizer);
-            List<Instruction> instructions;
+            return 0;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(cwd.resolve(outputFileName), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            stderr.println("Cannot open output file.");
+            e.printStackTrace(stderr);
+            return 2;
+        }
+        try (channel) {
             try {
-                instructions = analyzer.analyse();
+                analyse(iter, parallel, optimizer, new ObjectFileSink(channel));
             } catch (Exception e) {
-                // 遇到错误不输出，直接退出
-                System.err.println(e);
-                System.exit(0);
-                return;
+                // 遇到错误不输出，已经写出去的也丢掉
+                stderr.println(e);
+                channel.truncate(0);
             }
-            for (Instruction instruction : instructions) {
-                output.println(instruction.toString());
+        } catch (IOException e) {
+            e.printStackTrace(stderr);
+            return 2;
+        }
+        return 0;
+    }
+
+    private static Engine engine(Namespace result) {
+        return result.getBoolean("jit") ? Engine.COMPILED : Engine.INTERPRETER;
+    }
+
+    /**
+     * 用 MiniVm 执行一个目标文件（-r），WRT 的输出写到 -o 指定的地方
+     */
+    private static int runObjectFile(Namespace result, Path cwd, InputStream stdin, PrintStream stdout,
+            PrintStream stderr) {
+        var inputFileName = result.getString("input");
+        ObjectFile program;
+        try {
+            if (inputFileName.equals("-")) {
+                program = ObjectFile.decode(ByteBuffer.wrap(stdin.readAllBytes()));
+            } else {
+                program = ObjectFile.read(cwd.resolve(inputFileName));
             }
-        } else {
-            System.err.println("Please specify either '--analyse' or '--tokenize'.");
-            System.exit(3);
+        } catch (IOException e) {
+            stderr.println("Cannot read object file.");
+            e.printStackTrace(stderr);
+            return 2;
         }
+
+        PrintStream output;
+        try {
+            output = openOutput(cwd, result.getString("output"), stdout);
+        } catch (FileNotFoundException e) {
+            stderr.println("Cannot open output file.");
+            e.printStackTrace(stderr);
+            return 2;
+        }
+        try {
+            var vm = new MiniVm(program, output, engine(result));
+            vm.setOutput(new VmOutput(output));
+            vm.Run();
+        } catch (RuntimeException e) {
+            stderr.println(e);
+        } finally {
+            if (output != stdout) {
+                output.close();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 分析源文件，生成的指令直接交给 MiniVm 执行（-l -r），不经过文件
+     */
+    private static int runSource(StringIter iter, boolean parallel, Optimizer optimizer, Engine engine, Path cwd,
+            String outputFileName, PrintStream stdout, PrintStream stderr) {
+        PrintStream output;
+        try {
+            output = openOutput(cwd, outputFileName, stdout);
+        } catch (FileNotFoundException e) {
+            stderr.println("Cannot open output file.");
+            e.printStackTrace(stderr);
+            return 2;
+        }
+        var sink = new VmSink(output, engine);
+        try {
+            analyse(iter, parallel, optimizer, sink);
+            var vm = sink.getVm();
+            vm.setOutput(new VmOutput(output));
+            vm.Run();
+        } catch (Exception e) {
+            stderr.println(e);
+        } finally {
+            if (output != stdout) {
+                output.close();
+            }
+        }
+        return 0;
     }
 
-    private static ArgumentParser buildArgparse() {
-        var builder = ArgumentParsers.newFor("miniplc0-java");
+    /**
+     * 和 Arguments.help() 一样，但不自己打印到 System.out，由 run 打印到它的 stdout
+     */
+    private static class HelpAction implements ArgumentAction {
+        @Override
+        public void run(ArgumentParser parser, Argument arg, Map<String, Object> attrs, String flag, Object value)
+                throws ArgumentParserException {
+            throw new HelpScreenException(parser);
+        }
+
+        @Override
+        public void onAttach(Argument arg) {
+        }
+
+        @Override
+        public boolean consumeArgument() {
+            return false;
+        }
+    }
+
+    static ArgumentParser buildArgparse() {
+        var builder = ArgumentParsers.newFor("miniplc0-java").addHelp(false);
         var parser = builder.build();
+        parser.addArgument("-h", "--help").help("show this help message and exit").action(new HelpAction());
         parser.addArgument("-t", "--tokenize").help("Tokenize the input").action(Arguments.storeTrue());
         parser.addArgument("-l", "--analyse").help("Analyze the input").action(Arguments.storeTrue());
+        parser.addArgument("-r", "--run")
+                .help("Run an object file produced by '--analyse --binary', or with '--analyse' the source file")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--binary").help("Write the analysed program as a binary object file")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--jit").help("Translate the program to JVM bytecode before running it (with '--run')")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-j", "--parallel").help("Tokenize large input files in parallel")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-b", "--batch")
+                .help("Compile every file listed in the input manifest (or in the input directory) into the output directory")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--threads").help("Number of threads used in batch mode").type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE)).metavar("THREADS")
+                .setDefault(Runtime.getRuntime().availableProcessors()).action(Arguments.store());
+        parser.addArgument("-O", "--optimize").help("Optimization level (0-" + Optimizer.MAX_LEVEL + ")")
+                .type(Integer.class).choices(Arguments.range(0, Optimizer.MAX_LEVEL)).setDefault(0)
+                .action(Arguments.store());
+        parser.addArgument("--opt-report").help("Print how many instructions the optimizer removed")
+                .action(Arguments.storeTrue());
         parser.addArgument("-o", "--output").help("Set the output file").required(true).dest("output")
                 .action(Arguments.store());
         parser.addArgument("file").required(true).dest("input").action(Arguments.store()).help("Input file");
         return parser;
     }
 
-    private static Tokenizer tokenize(StringIter iter) {
-        var tokenizer = new Tokenizer(iter);
-        return tokenizer;
+    /**
+     * 普通文件直接映射进内存按 UTF-8 字节读，映射不了的（太大）再退回流式读取
+     */
+    static StringIter openInputFile(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() <= MappedStringIter.MAX_MAPPED_SIZE) {
+            try (channel) {
+                return new MappedStringIter(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return new StringIter(channel);
     }
 }
@@ -0,0 +1,201 @@
+package miniplc0java;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import miniplc0java.error.CompileError;
+import miniplc0java.optimizer.Optimizer;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * 批量编译：在一个 JVM 里用 ForkJoinPool 并发编译很多个文件，省掉每个文件都要付的 JVM 启动和 JIT 预热
+ * <p>
+ * 输入是一个清单文件或者一个目录。清单每行是 "输入 [输出]"，空行和 # 开头的行忽略，相对路径相对于清单所在的目录；
+ * 输入和输出之间一般用空白分隔，路径里有空格时要用 tab 分隔。
+ * 没写输出的，以及目录里的每个文件，输出到输出目录下的 "文件名.out"。
+ * 每个文件用自己的 StringIter、Tokenizer 和 Analyser，互不影响。
+ */
+public class BatchCompiler {
+
+    /**
+     * 一个要编译的文件
+     */
+    public static class Job {
+        public final Path input;
+        public final Path output;
+
+        public Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * 一个文件的编译结果
+     */
+    public static class Result {
+        public enum Status {
+            /** 编译成功 */
+            OK,
+            /** 有编译错误，和单独编译时一样只创建一个空的输出文件 */
+            ERROR,
+            /** 读写文件失败 */
+            FAILED,
+        }
+
+        public final Job job;
+        public final Status status;
+        public final String message;
+        public final long nanos;
+
+        Result(Job job, Status status, String message, long nanos) {
+            this.job = job;
+            this.status = status;
+            this.message = message;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            var sb = new StringBuilder().append(status).append(' ').append(job.input);
+            sb.append(String.format(" (%.1f ms)", nanos / 1e6));
+            if (message != null) {
+                sb.append(": ").append(message);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 读清单文件
+     */
+    public static List<Job> readManifest(Path manifest, Path outputDir) throws IOException {
+        var base = manifest.toAbsolutePath().getParent();
+        var jobs = new ArrayList<Job>();
+        for (var line : Files.readAllLines(manifest)) {
+            // 有 tab 时只按 tab 分，路径里可以有空格
+            boolean tabbed = line.indexOf('\t') >= 0;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            var fields = tabbed ? line.split("\\s*\t\\s*", 2) : line.split("\\s+");
+            var input = base.resolve(fields[0]);
+            var output = fields.length > 1 ? base.resolve(fields[1]) : defaultOutput(input, outputDir);
+            jobs.add(new Job(input, output));
+        }
+        return jobs;
+    }
+
+    /**
+     * 目录里的每一个普通文件，按文件名排序
+     */
+    public static List<Job> listDirectory(Path dir, Path outputDir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).sorted()
+                    .map(input -> new Job(input, defaultOutput(input, outputDir))).collect(Collectors.toList());
+        }
+    }
+
+    private static Path defaultOutput(Path input, Path outputDir) {
+        return outputDir.resolve(input.getFileName() + ".out");
+    }
+
+    /**
+     * 编译一个文件，不抛异常，结果都记在返回值里
+     */
+    public static Result compileOne(Job job, boolean tokenize, Optimizer optimizer) {
+        long start = System.nanoTime();
+        try {
+            var iter = App.openInputFile(job.input);
+            try (var output = new PrintStream(new BufferedOutputStream(Files.newOutputStream(job.output)))) {
+                App.compile(iter, tokenize, false, optimizer, output);
+                if (output.checkError()) {
+                    return new Result(job, Result.Status.FAILED, "cannot write output", System.nanoTime() - start);
+                }
+            }
+            return new Result(job, Result.Status.OK, null, System.nanoTime() - start);
+        } catch (CompileError e) {
+            // -l 已经写出去的函数丢掉，只留下一个空文件
+            try {
+                Files.newOutputStream(job.output).close();
+            } catch (IOException e1) {
+                return new Result(job, Result.Status.FAILED, e1.toString(), System.nanoTime() - start);
+            }
+            return new Result(job, Result.Status.ERROR, e.toString(), System.nanoTime() - start);
+        } catch (IOException e) {
+            return new Result(job, Result.Status.FAILED, e.toString(), System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            // 编译器自己的 bug 不要影响别的文件
+            return new Result(job, Result.Status.FAILED, e.toString(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 在 pool 上并发编译所有文件，结果和 jobs 的顺序一致
+     */
+    public static List<Result> compileAll(List<Job> jobs, boolean tokenize, Optimizer optimizer, ForkJoinPool pool) {
+        var tasks = new ArrayList<ForkJoinTask<Result>>();
+        for (var job : jobs) {
+            tasks.add(pool.submit(() -> compileOne(job, tokenize, optimizer)));
+        }
+        var results = new ArrayList<Result>();
+        for (var task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    /**
+     * App 的 --batch 模式，把每个文件的状态和汇总打印到标准输出
+     *
+     * @return 进程的退出码，有文件读写失败时为 1
+     */
+    static int run(Namespace args, Path cwd, PrintStream stdout, PrintStream stderr) {
+        var input = cwd.resolve(args.getString("input"));
+        var outputDir = cwd.resolve(args.getString("output"));
+        List<Job> jobs;
+        try {
+            Files.createDirectories(outputDir);
+            jobs = Files.isDirectory(input) ? listDirectory(input, outputDir) : readManifest(input, outputDir);
+        } catch (IOException e) {
+            stderr.println("Cannot read batch input: " + e);
+            return 2;
+        }
+
+        long start = System.nanoTime();
+        var pool = new ForkJoinPool(args.getInt("threads"));
+        var optimizer = new Optimizer(args.getInt("optimize"));
+        List<Result> results;
+        try {
+            results = compileAll(jobs, args.getBoolean("tokenize"), optimizer, pool);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int[] counts = new int[Result.Status.values().length];
+        var out = new PrintStream(new BufferedOutputStream(stdout), false);
+        for (var result : results) {
+            counts[result.status.ordinal()]++;
+            out.println(result);
+        }
+        out.printf("%d files in %.3f s: %d ok, %d with compile errors, %d failed%n", results.size(), seconds,
+                counts[Result.Status.OK.ordinal()], counts[Result.Status.ERROR.ordinal()],
+                counts[Result.Status.FAILED.ordinal()]);
+        if (args.getBoolean("opt_report")) {
+            out.println(optimizer.report());
+        }
+        out.flush();
+        return counts[Result.Status.FAILED.ordinal()] > 0 ? 1 : 0;
+    }
+}
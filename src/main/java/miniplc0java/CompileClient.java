@@ -0,0 +1,123 @@
+package miniplc0java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
+/**
+ * CompileServer 的客户端，把命令行参数原样转发给服务器，再把输出和退出码带回来
+ * <p>
+ * 口令从服务器写的口令文件里读，读不到就当服务器没开。
+ * <p>
+ * 用法：App --client [--port N] (--stats | --shutdown | 和直接运行 App 时一样的参数)
+ */
+public class CompileClient {
+
+    /**
+     * 发一个请求，把服务器的输出写到 stdout 和 stderr 里
+     *
+     * @param token 服务器的口令，见 CompileServer.readToken
+     * @param kind  CompileServer.COMPILE、STATS 或 SHUTDOWN
+     * @param stdin 编译请求的标准输入，没有时为 null
+     * @return 服务器给的退出码
+     */
+    public static int request(int port, byte[] token, byte kind, Path cwd, String[] args, byte[] stdin,
+            OutputStream stdout, OutputStream stderr) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(CompileServer.MAGIC);
+            out.write(token);
+            out.writeByte(kind);
+            if (kind == CompileServer.COMPILE) {
+                out.writeUTF(cwd.toAbsolutePath().toString());
+                out.writeInt(args.length);
+                for (var arg : args) {
+                    out.writeUTF(arg);
+                }
+                if (stdin == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(stdin.length);
+                    out.write(stdin);
+                }
+            }
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                byte channel = in.readByte();
+                if (channel == CompileServer.END) {
+                    stdout.flush();
+                    stderr.flush();
+                    return in.readInt();
+                }
+                var bytes = in.readNBytes(in.readInt());
+                (channel == CompileServer.STDERR ? stderr : stdout).write(bytes);
+            }
+        }
+    }
+
+    /**
+     * 输入是不是标准输入，是的话要把标准输入一起发过去
+     */
+    private static boolean readsStdin(String[] args) {
+        try {
+            var result = App.buildArgparse().parseArgs(args);
+            return "-".equals(result.getString("input")) && !result.getBoolean("batch");
+        } catch (ArgumentParserException e) {
+            // 参数不对，让服务器去报错
+            return false;
+        }
+    }
+
+    /**
+     * App --client 的入口
+     *
+     * @return 进程的退出码
+     */
+    public static int main(String[] args) {
+        int port = CompileServer.DEFAULT_PORT;
+        if (args.length >= 2 && args[0].equals("--port")) {
+            port = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        byte kind = CompileServer.COMPILE;
+        if (args.length == 1 && args[0].equals("--stats")) {
+            kind = CompileServer.STATS;
+        } else if (args.length == 1 && args[0].equals("--shutdown")) {
+            kind = CompileServer.SHUTDOWN;
+        }
+
+        var cwd = Path.of("");
+        try {
+            byte[] stdin = kind == CompileServer.COMPILE && readsStdin(args) ? System.in.readAllBytes() : null;
+            try {
+                var token = CompileServer.readToken(CompileServer.defaultTokenDir(), port);
+                return request(port, token, kind, cwd, args, stdin, System.out, System.err);
+            } catch (ConnectException | NoSuchFileException e) {
+                if (kind != CompileServer.COMPILE) {
+                    System.err.println("Cannot connect to compile server on port " + port + ".");
+                    return 2;
+                }
+                // 服务器没开，自己编译，结果是一样的
+                var in = stdin != null ? new ByteArrayInputStream(stdin) : System.in;
+                return App.run(args, cwd, in, System.out, System.err);
+            }
+        } catch (IOException e) {
+            System.err.println("Compile server connection failed: " + e);
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package miniplc0java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.helper.HelpScreenException;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * 常驻的编译服务器，只监听本机的 TCP 端口，省掉每次编译都要付的 JVM 启动、类加载和 JIT 预热
+ * <p>
+ * 本机的其他用户也连得上这个端口，所以启动时生成一个随机口令，写进用户主目录下只有自己能读的文件里
+ * （见 tokenFile），每个请求都要带上它，对不上的直接拒绝。
+ * <p>
+ * 每个连接一个请求，用 DataOutputStream 的格式编码：
+ * <pre>
+ * 请求：int MAGIC，TOKEN_LENGTH 字节的口令，byte 请求类型
+ *   COMPILE  额外带上 UTF 工作目录，int 参数个数和每个参数（UTF），int 标准输入的长度（-1 表示没有）和内容
+ *   STATS    没有内容，返回请求数、延迟和吞吐量
+ *   SHUTDOWN 没有内容，处理完正在进行的请求后退出
+ * 响应：若干个输出块 byte 通道（STDOUT 或 STDERR），int 长度，内容；最后是 byte END 和 int 退出码
+ * </pre>
+ * 编译请求的参数和直接运行 App 时一样，由 App.run 处理，相对路径相对于客户端的工作目录。
+ */
+public class CompileServer {
+    public static final int DEFAULT_PORT = 7700;
+
+    static final int MAGIC = 0xC0C05E01;
+
+    static final int TOKEN_LENGTH = 32;
+
+    // 一个编译请求最多带几个参数
+    static final int MAX_ARGS = 1024;
+
+    // 请求类型
+    static final byte COMPILE = 1;
+    static final byte STATS = 2;
+    static final byte SHUTDOWN = 3;
+
+    // 响应里的输出块
+    static final byte END = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final byte[] token;
+    private final Path tokenFile;
+
+    // 统计
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param port    传 0 表示随便找一个空闲端口，见 getPort
+     * @param threads 同时处理几个请求
+     */
+    public CompileServer(int port, int threads) throws IOException {
+        this(port, threads, defaultTokenDir());
+    }
+
+    /**
+     * @param tokenDir 口令文件放在这里
+     */
+    public CompileServer(int port, int threads, Path tokenDir) throws IOException {
+        this.serverSocket = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+        this.token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        try {
+            this.tokenFile = writeToken(tokenDir, getPort(), token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    static Path defaultTokenDir() {
+        return Path.of(System.getProperty("user.home"), ".miniplc0-java");
+    }
+
+    /**
+     * 监听 port 的服务器的口令文件
+     */
+    static Path tokenFile(Path tokenDir, int port) {
+        return tokenDir.resolve("server-" + port + ".token");
+    }
+
+    /**
+     * 读监听 port 的服务器的口令，服务器没开时抛 NoSuchFileException
+     */
+    static byte[] readToken(Path tokenDir, int port) throws IOException {
+        return Files.readAllBytes(tokenFile(tokenDir, port));
+    }
+
+    /**
+     * 新建口令文件，创建时就只有自己能读写，不会有一段时间是别人也能读的
+     */
+    private static Path writeToken(Path tokenDir, int port, byte[] token) throws IOException {
+        Files.createDirectories(tokenDir);
+        var file = tokenFile(tokenDir, port);
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, token);
+        return file;
+    }
+
+    /**
+     * 一直接受连接，直到收到 SHUTDOWN 或者 close
+     */
+    public void serve() {
+        try {
+            while (true) {
+                var socket = serverSocket.accept();
+                workers.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            // close 之后 accept 会抛异常，正常退出
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            // 关不掉也没什么好做的
+        }
+    }
+
+    /**
+     * 把写进来的内容打包成输出块发给客户端
+     */
+    private static class FrameOutputStream extends OutputStream {
+        final DataOutputStream out;
+        final byte channel;
+        // 写过东西没有，编译错误只会写到 stderr，退出码还是 0
+        volatile boolean written;
+
+        FrameOutputStream(DataOutputStream out, byte channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // stdout 和 stderr 共用一个连接
+            written = true;
+            synchronized (out) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            // 口令不对的请求连类型都不看，直接拒绝
+            boolean authorized = MessageDigest.isEqual(in.readNBytes(TOKEN_LENGTH), token);
+            byte kind = in.readByte();
+            int exitCode = 0;
+            if (!authorized) {
+                exitCode = reject(out, "Compile server rejected the request: wrong token.");
+            } else if (kind == COMPILE) {
+                exitCode = compile(in, out);
+            } else if (kind == STATS) {
+                var stdout = new FrameOutputStream(out, STDOUT);
+                stdout.write(stats().getBytes(StandardCharsets.UTF_8));
+            } else if (kind == SHUTDOWN) {
+                close();
+            } else {
+                exitCode = 2;
+            }
+            out.writeByte(END);
+            out.writeInt(exitCode);
+            out.flush();
+        } catch (IOException e) {
+            // 客户端断开了，这个请求就算了
+        }
+    }
+
+    /**
+     * 不处理这个请求，原因写到客户端的 stderr
+     *
+     * @return 退出码
+     */
+    private static int reject(DataOutputStream out, String message) throws IOException {
+        new FrameOutputStream(out, STDERR).write((message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        return 2;
+    }
+
+    private int compile(DataInputStream in, DataOutputStream out) throws IOException {
+        var cwd = Path.of(in.readUTF());
+        int argc = in.readInt();
+        if (argc < 0 || argc > MAX_ARGS) {
+            return reject(out, "Compile server rejected the request: bad argument count " + argc + ".");
+        }
+        var args = new String[argc];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        int stdinLength = in.readInt();
+        if (stdinLength < -1) {
+            return reject(out, "Compile server rejected the request: bad input length " + stdinLength + ".");
+        }
+        InputStream stdin = InputStream.nullInputStream();
+        if (stdinLength >= 0) {
+            stdin = new ByteArrayInputStream(in.readNBytes(stdinLength));
+        }
+
+        long start = System.nanoTime();
+        var stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDOUT)), false,
+                StandardCharsets.UTF_8);
+        var stderrFrames = new FrameOutputStream(out, STDERR);
+        var stderr = new PrintStream(new BufferedOutputStream(stderrFrames), false, StandardCharsets.UTF_8);
+        int exitCode;
+        try {
+            exitCode = App.run(args, cwd, stdin, stdout, stderr);
+        } catch (RuntimeException | Error e) {
+            // 编译器自己的 bug 不要把服务器弄挂
+            e.printStackTrace(stderr);
+            exitCode = 1;
+        }
+        stdout.flush();
+        stderr.flush();
+
+        long nanos = System.nanoTime() - start;
+        compiles.incrementAndGet();
+        if (exitCode != 0 || stderrFrames.written) {
+            failures.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulate(nanos);
+        return exitCode;
+    }
+
+    /**
+     * 统计信息，每行一项；failed 是退出码不为 0 或者报了编译错误的请求
+     */
+    String stats() {
+        long count = compiles.get();
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        var sb = new StringBuilder();
+        sb.append(String.format("requests: %d%n", count));
+        sb.append(String.format("failed: %d%n", failures.get()));
+        sb.append(String.format("latency avg: %.3f ms%n", count == 0 ? 0.0 : totalNanos.get() / 1e6 / count));
+        sb.append(String.format("latency max: %.3f ms%n", maxNanos.get() / 1e6));
+        sb.append(String.format("throughput: %.1f requests/s%n", count / uptime));
+        sb.append(String.format("uptime: %.1f s%n", uptime));
+        return sb.toString();
+    }
+
+    static ArgumentParser buildArgparse() {
+        var parser = ArgumentParsers.newFor("miniplc0-java --server").build();
+        parser.addArgument("--port").help("Port to listen on (0 picks a free one)").type(Integer.class)
+                .choices(Arguments.range(0, 65535)).metavar("PORT").setDefault(DEFAULT_PORT)
+                .action(Arguments.store());
+        parser.addArgument("--threads").help("Number of requests handled at the same time").type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE)).metavar("THREADS")
+                .setDefault(Runtime.getRuntime().availableProcessors()).action(Arguments.store());
+        return parser;
+    }
+
+    /**
+     * App --server [--port N] [--threads N]
+     */
+    public static void main(String[] args) {
+        var argparse = buildArgparse();
+        Namespace result;
+        try {
+            result = argparse.parseArgs(args);
+        } catch (HelpScreenException e) {
+            return;
+        } catch (ArgumentParserException e) {
+            argparse.handleError(e);
+            System.exit(2);
+            return;
+        }
+        int port = result.getInt("port");
+        int threads = result.getInt("threads");
+        CompileServer server;
+        try {
+            server = new CompileServer(port, threads);
+        } catch (IOException e) {
+            System.err.println("Cannot listen on port " + port + ": " + e);
+            System.exit(2);
+            return;
+        }
+        // Ctrl-C 或者 kill 退出时也要删掉口令文件
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.err.println("Compile server listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getPort());
+        server.serve();
+    }
+}
@@ -1,13 +1,18 @@
 package miniplc0java.analyser;
 
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.NodeKind;
 import miniplc0java.error.AnalyzeError;
 import miniplc0java.error.CompileError;
 import miniplc0java.error.ErrorCode;
 import miniplc0java.error.ExpectedTokenError;
 import miniplc0java.error.TokenizeError;
 import miniplc0java.instruction.Instruction;
-import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.InstructionBuffer;
+import miniplc0java.instruction.InstructionSink;
+import miniplc0java.instruction.ListSink;
 import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
 import miniplc0java.tokenizer.TokenType;
 import miniplc0java.tokenizer.Tokenizer;
 import miniplc0java.util.Pos;
@@ -17,11 +22,34 @@ import java.util.*;
 public final class Analyser {
 
     Tokenizer tokenizer;
-    ArrayList<Instruction> instructions;
+
+    /** 生成的指令发到这里 */
+    InstructionSink sink;
+
+    /** 当前函数的代码，函数分析完再整个交给 sink，在这之前跳转的目标可以按下标回填 */
+    InstructionBuffer code = new InstructionBuffer();
 
     /** 当前偷看的 token */
     Token peekedToken = null;
 
+    /** 流式分析时上一次 next 跳过的 token */
+    Token lastToken = null;
+
+    /** 事先解析好的整个文件的 token，和 tokenizer 二选一 */
+    TokenBuffer tokens;
+
+    /** tokens 中下一个 token 的下标 */
+    int cursor = 0;
+
+    /** 上一次 next 返回的 token 的下标，流式分析时是它在输入里的序号 */
+    int lastIndex = -1;
+
+    /** 解析出来的语法树 */
+    Ast ast;
+
+    /** 为 false 时每个全局的项分析完就从语法树里去掉 */
+    boolean keepAst = true;
+
     /** 符号表 */
     HashMap<String, SymbolEntry> symbolTable = new HashMap<>();
 
@@ -29,13 +57,59 @@ public final class Analyser {
     int nextOffset = 0;
 
     public Analyser(Tokenizer tokenizer) {
+        this(tokenizer, new ListSink());
+    }
+
+    /**
+     * 生成的指令边分析边发给 sink
+     */
+    public Analyser(Tokenizer tokenizer, InstructionSink sink) {
         this.tokenizer = tokenizer;
-        this.instructions = new ArrayList<>();
+        this.sink = sink;
+        this.ast = new Ast(null);
+    }
+
+    /**
+     * 在事先解析好的 token 上分析，tokens 的最后一个必须是 EOF
+     */
+    public Analyser(TokenBuffer tokens) {
+        this(tokens, new ListSink());
     }
 
+    public Analyser(TokenBuffer tokens, InstructionSink sink) {
+        this.tokens = tokens;
+        this.sink = sink;
+        this.ast = new Ast(tokens);
+    }
+
+    /**
+     * 分析整个程序，结束时调用 sink 的 finish
+     *
+     * @return 生成的指令，指令发给了构造时传进来的 sink 时返回空表
+     */
     public List<Instruction> analyse() throws CompileError {
         analyseProgram();
-        return instructions;
+        code.drainTo(sink);
+        sink.finish();
+        if (sink instanceof ListSink) {
+            return ((ListSink) sink).getInstructions();
+        }
+        return List.of();
+    }
+
+    /**
+     * 不需要语法树时设为 false，每个函数和全局声明分析完就丢掉它的节点，
+     * 配合流式的 Tokenizer，内存占用只和最大的那个函数有关。这时 getAst 只剩一个空的 PROGRAM 节点
+     */
+    public void setKeepAst(boolean keepAst) {
+        this.keepAst = keepAst;
+    }
+
+    /**
+     * analyse 之后可以取到整个程序的语法树
+     */
+    public Ast getAst() {
+        return ast;
     }
 
     /**
@@ -46,6 +120,9 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private Token peek() throws TokenizeError {
+        if (tokens != null) {
+            return tokens.get(cursor);
+        }
         if (peekedToken == null) {
             peekedToken = tokenizer.nextToken();
         }
@@ -53,20 +130,37 @@ public final class Analyser {
     }
 
     /**
-     * 获取下一个 Token
-     * 输出并前进一个token
+     * 前进一个 token
+     * 事先解析好的 token 不创建 Token 对象，要用值或者位置时再调用 lastToken
      * 
-     * @return
      * @throws TokenizeError
      */
-    private Token next() throws TokenizeError {
+    private void next() throws TokenizeError {
+        if (tokens != null) {
+            lastIndex = cursor;
+            // 停在最后的 EOF 上
+            if (cursor < tokens.size() - 1) {
+                cursor++;
+            }
+            return;
+        }
+        lastIndex++;
         if (peekedToken != null) {
-            var token = peekedToken;
+            lastToken = peekedToken;
             peekedToken = null;
-            return token;
         } else {
-            return tokenizer.nextToken();
+            lastToken = tokenizer.nextToken();
+        }
+    }
+
+    /**
+     * 上一次 next 跳过的 token
+     */
+    private Token lastToken() {
+        if (tokens != null) {
+            return tokens.get(lastIndex);
         }
+        return lastToken;
     }
 
     /**
@@ -77,6 +171,10 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private boolean check(TokenType tt) throws TokenizeError {
+        if (tokens != null) {
+            // 只看类型，不用创建 Token
+            return tokens.getTokenType(cursor) == tt;
+        }
         var token = peek();
         return token.getTokenType() == tt;
     }
@@ -90,31 +188,36 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private Token nextIf(TokenType tt) throws TokenizeError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
-            return next();
+        if (check(tt)) {
+            next();
+            return lastToken();
         } else {
             return null;
         }
     }
 
     /**
-     * 如果下一个 token 的类型是 tt，则前进一个 token 并返回，否则抛出异常
-     * 相当于会抛异常版的 nextIf
+     * 如果下一个 token 的类型是 tt，则前进一个 token，否则抛出异常
+     * 相当于会抛异常版的 nextIf，要用这个 token 时调用 lastToken
      * 
      * @param tt 类型
-     * @return 这个 token
      * @throws CompileError 如果类型不匹配
      */
-    private Token expect(TokenType tt) throws CompileError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
-            return next();
+    private void expect(TokenType tt) throws CompileError {
+        if (check(tt)) {
+            next();
         } else {
-            throw new ExpectedTokenError(tt, token);
+            throw new ExpectedTokenError(tt, peek());
         }
     }
 
+    /**
+     * 添加一个语法树节点，对应的 token 是上一次 next 返回的那个
+     */
+    private int node(NodeKind kind) {
+        return ast.add(kind, lastIndex);
+    }
+
     /**
      * 获取下一个变量的栈偏移
      * 
@@ -204,75 +307,179 @@ public final class Analyser {
 
     call_param_list -> expr (',' expr)*
     binary_operator -> '+' | '-' | '*' | '/' | '==' | '!=' | '<' | '>' | '<=' | '>='*/
-    private void analyseExpr() throws CompileError {
-        /*'-' expr*/
-        if(check(TokenType.MINUS)){
-            next();
-            analyseExpr();
-        }
-        /*UINT_LITERAL | DOUBLE_LITERAL | STRING_LITERAL | CHAR_LITERAL      //字面量*/
-        else if(check(TokenType.UINT_LITERAL)){
-            next();
-        }
-        else if(check(TokenType.DOUBLE_LITERAL)){
-            next();
-        }
-        else if(check(TokenType.STRING_LITERAL)){
-            next();
-        }
-        else if(check(TokenType.CHAR_LITERAL)){
-            next();
-        }
-        /*IDENT*/
-        else if(check(TokenType.IDENT)){
-            next();
-            /*IDENT '=' expr*/
-            if(check(TokenType.ASSIGN)){
-                next();
-                analyseExpr();
-            }
-            /*IDENT '(' call_param_list? ')'*/
-            else if(check(TokenType.L_PAREN)){
-                next();
-                analyseParamList();
-            }
-            expect(TokenType.R_PAREN);
-        }
-        else if(check(TokenType.L_PAREN)){
-            next();
-            analyseExpr();
-            expect(TokenType.R_PAREN);
-        }
-        while(analyseBinaryOperator()||check(TokenType.AS_KW)){
-            if(analyseBinaryOperator()){
-                next();
-                analyseExpr();
-            }
-            else if(check(TokenType.AS_KW)){
-                expect(TokenType.IDENT);
-            }
-        }
+    // 运算符优先级从高到低：括号、前置 -、as、* /、+ -、比较、=
+    // 按 TokenType 的序号查二元运算符（包括 as）的结合力，0 表示不是二元运算符
+    private static final int[] BINARY_POWER = new int[TokenType.values().length];
+    private static final int ASSIGN_POWER = 1;
+    private static final int PREFIX_POWER = 6;
+
+    static {
+        BINARY_POWER[TokenType.ASSIGN.ordinal()] = ASSIGN_POWER;
+        for (var tt : List.of(TokenType.EQ, TokenType.NEQ, TokenType.LT, TokenType.GT, TokenType.LE, TokenType.GE)) {
+            BINARY_POWER[tt.ordinal()] = 2;
+        }
+        BINARY_POWER[TokenType.PLUS.ordinal()] = 3;
+        BINARY_POWER[TokenType.MINUS.ordinal()] = 3;
+        BINARY_POWER[TokenType.MUL.ordinal()] = 4;
+        BINARY_POWER[TokenType.DIV.ordinal()] = 4;
+        BINARY_POWER[TokenType.AS_KW.ordinal()] = 5;
     }
 
-    private void analyseParamList() throws CompileError {
-        analyseExpr();
-        while (check(TokenType.COMMA)){
-            next();
-            analyseExpr();
+    /**
+     * 下一个 token 的类型
+     */
+    private TokenType peekType() throws TokenizeError {
+        if (tokens != null) {
+            return tokens.getTokenType(cursor);
         }
+        return peek().getTokenType();
+    }
+
+    // 表达式解析栈里除了结合力之外的两种项
+    private static final int PAREN_FRAME = -1;
+    private static final int CALL_FRAME = -2;
+
+    /**
+     * 解析表达式和嵌套块用的显式栈，代替递归，这样很长的表达式和很深的嵌套也不会爆栈
+     * 每一项还带着一个还没构造完的语法树节点，放在 stackNode 里，没有时为 -1
+     */
+    int[] stack = new int[64];
+    int[] stackNode = new int[64];
+    int stackSize = 0;
+
+    private void push(int frame, int node) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+            stackNode = Arrays.copyOf(stackNode, stackSize * 2);
+        }
+        stack[stackSize] = frame;
+        stackNode[stackSize] = node;
+        stackSize++;
     }
 
-    //binary_operator -> '+' | '-' | '*' | '/' | '==' | '!=' | '<' | '>' | '<=' | '>='
-    private boolean analyseBinaryOperator() throws CompileError {
-        if(check(TokenType.PLUS)||check(TokenType.MINUS)||
-                check(TokenType.MUL)||check(TokenType.DIV)||
-                check(TokenType.ASSIGN)||check(TokenType.EQ)||
-                check(TokenType.NEQ)||check(TokenType.LT)||check(TokenType.GT)
-                ||check(TokenType.LE)||check(TokenType.GE)) {
-            return true;
+    /**
+     * 用优先级爬升解析表达式
+     * 除了 = 是右结合，其他二元运算符都是左结合
+     * <p>
+     * 没有递归：栈上的每一个非负数项相当于递归版本里的一层 analyseExpr(minPower)，
+     * 只吃结合力大于 minPower 的运算符；括号和函数调用各占一项，等里面的表达式解析完了再收尾。
+     * 一层里的节点是运算符节点，已经有了左操作数，等这一层结束再接上右操作数。
+     *
+     * @return 表达式的语法树节点
+     */
+    private int analyseExpr() throws CompileError {
+        int base = stackSize;
+        push(0, -1);
+        while (true) {
+            // 读一个操作数，遇到前缀 - 和括号就往栈里压一层，继续读里面的操作数
+            // 左边是不是单独一个标识符，只有这样才能赋值
+            boolean assignable = false;
+            int operand;
+            var tokenType = peekType();
+            next();
+            switch (tokenType) {
+                case MINUS:
+                    /*'-' expr*/
+                    push(PREFIX_POWER, node(NodeKind.NEGATE));
+                    continue;
+                case UINT_LITERAL:
+                case DOUBLE_LITERAL:
+                case STRING_LITERAL:
+                case CHAR_LITERAL:
+                    operand = node(NodeKind.LITERAL);
+                    break;
+                case IDENT:
+                    /*IDENT '(' call_param_list? ')'*/
+                    if (check(TokenType.L_PAREN)) {
+                        operand = node(NodeKind.CALL);
+                        next();
+                        if (!check(TokenType.R_PAREN)) {
+                            push(CALL_FRAME, operand);
+                            push(0, -1);
+                            continue;
+                        }
+                        next();
+                    } else {
+                        operand = node(NodeKind.IDENT);
+                        assignable = true;
+                    }
+                    break;
+                case L_PAREN:
+                    push(PAREN_FRAME, -1);
+                    push(0, -1);
+                    continue;
+                default:
+                    throw new ExpectedTokenError(List.of(TokenType.MINUS, TokenType.UINT_LITERAL,
+                            TokenType.DOUBLE_LITERAL, TokenType.STRING_LITERAL, TokenType.CHAR_LITERAL,
+                            TokenType.IDENT, TokenType.L_PAREN), lastToken());
+            }
+
+            // 有了一个完整的操作数，看后面的运算符归哪一层
+            while (true) {
+                int minPower = stack[stackSize - 1];
+                var tt = peekType();
+                int power = BINARY_POWER[tt.ordinal()];
+                if (power > minPower) {
+                    next();
+                    int opNode;
+                    if (tt == TokenType.AS_KW) {
+                        /*expr 'as' IDENT*/
+                        opNode = node(NodeKind.CAST);
+                        expect(TokenType.IDENT);
+                        ast.appendChild(opNode, operand);
+                        ast.appendChild(opNode, node(NodeKind.TYPE));
+                        operand = opNode;
+                        assignable = false;
+                        continue;
+                    }
+                    if (tt == TokenType.ASSIGN) {
+                        /*IDENT '=' expr*/
+                        if (!assignable) {
+                            throw new AnalyzeError(ErrorCode.InvalidAssignment, lastToken().getStartPos());
+                        }
+                        opNode = node(NodeKind.ASSIGN);
+                        push(power - 1, opNode);
+                    } else {
+                        /*expr binary_operator expr*/
+                        opNode = node(NodeKind.BINARY);
+                        push(power, opNode);
+                    }
+                    ast.appendChild(opNode, operand);
+                    break;
+                }
+
+                // 这一层结束了，它是外面一层的一个操作数
+                stackSize--;
+                int opNode = stackNode[stackSize];
+                if (opNode >= 0) {
+                    ast.appendChild(opNode, operand);
+                    operand = opNode;
+                }
+                assignable = false;
+                if (stackSize == base) {
+                    return operand;
+                }
+                int frame = stack[stackSize - 1];
+                if (frame == PAREN_FRAME) {
+                    expect(TokenType.R_PAREN);
+                    stackSize--;
+                } else if (frame == CALL_FRAME) {
+                    /*call_param_list -> expr (',' expr)**/
+                    int call = stackNode[stackSize - 1];
+                    ast.appendChild(call, operand);
+                    if (check(TokenType.COMMA)) {
+                        next();
+                        push(0, -1);
+                        break;
+                    }
+                    expect(TokenType.R_PAREN);
+                    stackSize--;
+                    operand = call;
+                }
+            }
         }
-        return false;
     }
+
         /*// # 语句
     stmt ->
           expr ';'
@@ -289,116 +496,84 @@ public final class Analyser {
 
     block_stmt -> '{' stmt* '}'*/
 
-    private void analyseStmt() throws CompileError {
-        if(check(TokenType.IF_KW)){
-            next();
-            analyseExpr();
-            analyseBlockStmt();
-            while(check(TokenType.ELSE_KW)){
-                next();
-                if(check(TokenType.IF_KW)){
-                    next();
-                    analyseExpr();
-                    analyseBlockStmt();
-                }
-                else {
-                    analyseBlockStmt();
-                    break;
-                }
-            }
-        }
-        else if(check(TokenType.WHILE_KW)){
-            next();
-            analyseExpr();
-            analyseBlockStmt();
-        }
-        else if(check(TokenType.BREAK_KW)){
+    /**
+     * 解析一个不含块的语句，if、while 和块由 analyseBlockStmt 处理
+     *
+     * @return 语句的语法树节点
+     */
+    private int analyseStmt() throws CompileError {
+        int stmt;
+        if(check(TokenType.BREAK_KW)){
             next();
+            stmt = node(NodeKind.BREAK);
             expect(TokenType.SEMICOLON);
         }
         else if(check(TokenType.CONTINUE_KW)){
             next();
+            stmt = node(NodeKind.CONTINUE);
             expect(TokenType.SEMICOLON);
         }
         else if(check(TokenType.RETURN_KW)){
             next();
+            stmt = node(NodeKind.RETURN);
             if(check(TokenType.SEMICOLON)){
                 next();
             }
             else {
-                analyseExpr();
+                ast.appendChild(stmt, analyseExpr());
                 expect(TokenType.SEMICOLON);
             }
         }
-        else if(check(TokenType.L_BRACE)){
-            analyseBlockStmt();
-        }
         else if(check(TokenType.LET_KW)||check(TokenType.CONST_KW)){
-//            if(check(TokenType.LET_KW)){
-//                next();
-//                expect(TokenType.IDENT);
-//                expect(TokenType.COLON);
-//                expect(TokenType.IDENT);
-//                if(check(TokenType.SEMICOLON)){
-//                    next();
-//                }
-//                else{
-//                    expect(TokenType.ASSIGN);
-//                    analyseExpr();
-//                    expect(TokenType.SEMICOLON);
-//                }
-//            }
-//            else {
-//                expect(TokenType.CONST_KW);
-//                expect(TokenType.IDENT);
-//                expect(TokenType.COLON);
-//                expect(TokenType.IDENT);
-//                if(check(TokenType.SEMICOLON)){
-//                    next();
-//                }
-//                else{
-//                    expect(TokenType.ASSIGN);
-//                    analyseExpr();
-//                    expect(TokenType.SEMICOLON);
-//                }
-//            }
-            analyseDeclStmt();
+            stmt = analyseDeclStmt();
+        }
+        else if(check(TokenType.SEMICOLON)){
+            next();
+            stmt = node(NodeKind.EMPTY_STMT);
         }
         else {
+            /*expr ';'*/
+            stmt = ast.add(NodeKind.EXPR_STMT, -1);
+            ast.appendChild(stmt, analyseExpr());
             expect(TokenType.SEMICOLON);
         }
+        return stmt;
+    }
+
+    /**
+     * 解析 ':' ty，返回类型节点
+     */
+    private int analyseType() throws CompileError {
+        expect(TokenType.COLON);
+        expect(TokenType.IDENT);
+        return node(NodeKind.TYPE);
     }
 
-    private void analyseDeclStmt() throws CompileError {
-        if(check(TokenType.LET_KW)||check(TokenType.CONST_KW)){
-            if(check(TokenType.LET_KW)){
+    private int analyseDeclStmt() throws CompileError {
+        if(check(TokenType.LET_KW)){
+            next();
+            expect(TokenType.IDENT);
+            int decl = node(NodeKind.LET_DECL);
+            ast.appendChild(decl, analyseType());
+            if(check(TokenType.SEMICOLON)){
                 next();
-                expect(TokenType.IDENT);
-                expect(TokenType.COLON);
-                expect(TokenType.IDENT);
-                if(check(TokenType.SEMICOLON)){
-                    next();
-                }
-                else{
-                    expect(TokenType.ASSIGN);
-                    analyseExpr();
-                    expect(TokenType.SEMICOLON);
-                }
             }
-            else {
-                expect(TokenType.CONST_KW);
-                expect(TokenType.IDENT);
-                expect(TokenType.COLON);
-                expect(TokenType.IDENT);
-                if(check(TokenType.SEMICOLON)){
-                    next();
-                }
-                else{
-                    expect(TokenType.ASSIGN);
-                    analyseExpr();
-                    expect(TokenType.SEMICOLON);
-                }
+            else{
+                expect(TokenType.ASSIGN);
+                ast.appendChild(decl, analyseExpr());
+                expect(TokenType.SEMICOLON);
             }
+            return decl;
+        }
+        else if(check(TokenType.CONST_KW)){
+            next();
+            expect(TokenType.IDENT);
+            int decl = node(NodeKind.CONST_DECL);
+            ast.appendChild(decl, analyseType());
+            expect(TokenType.ASSIGN);
+            ast.appendChild(decl, analyseExpr());
+            expect(TokenType.SEMICOLON);
+            return decl;
         }
         else {
             var token = peek();
@@ -406,67 +581,146 @@ public final class Analyser {
         }
     }
 
-    private void analyseBlockStmt() throws CompileError {
+    // 块栈里的项：普通的块、if 的块（结束之后可以跟 else）、if 语句本身（else 部分接在它下面）
+    private static final int PLAIN_BLOCK = 0;
+    private static final int IF_BLOCK = 1;
+    private static final int IF_STMT = 2;
+
+    /**
+     * 解析 '{'，打开一个新的块，栈上的节点是块节点
+     */
+    private int openBlock(int kind) throws CompileError {
         expect(TokenType.L_BRACE);
-        while (!check(TokenType.R_BRACE)){
-            analyseStmt();
+        int block = ast.add(NodeKind.BLOCK, -1);
+        push(kind, block);
+        return block;
+    }
+
+    /**
+     * 解析 'if' 之后的部分，if 节点接在 parent 下面
+     */
+    private void openIf(int parent) throws CompileError {
+        int stmt = node(NodeKind.IF);
+        ast.appendChild(parent, stmt);
+        ast.appendChild(stmt, analyseExpr());
+        push(IF_STMT, stmt);
+        ast.appendChild(stmt, openBlock(IF_BLOCK));
+    }
+
+    /**
+     * 解析一个块，里面嵌套的块不递归，而是在栈上记一项，块结束时弹出来
+     *
+     * @return 块的语法树节点
+     */
+    private int analyseBlockStmt() throws CompileError {
+        int base = stackSize;
+        int root = openBlock(PLAIN_BLOCK);
+        while (stackSize > base) {
+            int block = stackNode[stackSize - 1];
+            if(check(TokenType.R_BRACE)){
+                next();
+                if (stack[--stackSize] != IF_BLOCK) {
+                    continue;
+                }
+                // if 语句本身也出栈
+                int ifStmt = stackNode[--stackSize];
+                /*('else' 'if' expr block_stmt)* ('else' block_stmt)?*/
+                if(check(TokenType.ELSE_KW)){
+                    next();
+                    if(check(TokenType.IF_KW)){
+                        next();
+                        openIf(ifStmt);
+                    }
+                    else {
+                        ast.appendChild(ifStmt, openBlock(PLAIN_BLOCK));
+                    }
+                }
+            }
+            else if(check(TokenType.IF_KW)){
+                /*'if' expr block_stmt*/
+                next();
+                openIf(block);
+            }
+            else if(check(TokenType.WHILE_KW)){
+                /*'while' expr block_stmt*/
+                next();
+                int stmt = node(NodeKind.WHILE);
+                ast.appendChild(block, stmt);
+                ast.appendChild(stmt, analyseExpr());
+                ast.appendChild(stmt, openBlock(PLAIN_BLOCK));
+            }
+            else if(check(TokenType.L_BRACE)){
+                ast.appendChild(block, openBlock(PLAIN_BLOCK));
+            }
+            else {
+                ast.appendChild(block, analyseStmt());
+            }
         }
-        expect(TokenType.R_BRACE);
+        return root;
     }
 
-    private void analyseFunctionParam() throws CompileError {
+    private int analyseFunctionParam() throws CompileError {
+        int param;
         if(check(TokenType.IDENT)){
             next();
-            expect(TokenType.COLON);
-            expect(TokenType.IDENT);
+            param = node(NodeKind.PARAM);
         }
         else {
             expect(TokenType.CONST_KW);
             expect(TokenType.IDENT);
-            expect(TokenType.COLON);
-            expect(TokenType.IDENT);
+            param = node(NodeKind.CONST_PARAM);
         }
+        ast.appendChild(param, analyseType());
+        return param;
     }
 
-    private void analyseFunctionParamList() throws CompileError {
-        analyseFunctionParam();
+    private void analyseFunctionParamList(int function) throws CompileError {
+        ast.appendChild(function, analyseFunctionParam());
         while (check(TokenType.COMMA)){
             next();
-            analyseFunctionParam();
+            ast.appendChild(function, analyseFunctionParam());
         }
     }
 
-    private void analyseFunction() throws CompileError {
+    private int analyseFunction() throws CompileError {
         expect(TokenType.FN_KW);
         expect(TokenType.IDENT);
+        var name = lastToken();
+        int function = node(NodeKind.FUNCTION);
         expect(TokenType.L_PAREN);
-        if(check(TokenType.R_PAREN)){
-            next();
-            expect(TokenType.ARROW);
-            expect(TokenType.IDENT);
-            analyseBlockStmt();
-        }
-        else {
-            analyseFunctionParamList();
-            expect(TokenType.R_PAREN);
-            expect(TokenType.ARROW);
-            expect(TokenType.IDENT);
-            analyseBlockStmt();
+        if(!check(TokenType.R_PAREN)){
+            analyseFunctionParamList(function);
         }
+        expect(TokenType.R_PAREN);
+        expect(TokenType.ARROW);
+        expect(TokenType.IDENT);
+        ast.appendChild(function, node(NodeKind.TYPE));
+        ast.appendChild(function, analyseBlockStmt());
+        code.drainTo(sink);
+        sink.endFunction(name.getValueString());
+        return function;
     }
 
-    private void analyseItem() throws CompileError {
+    private int analyseItem() throws CompileError {
         if(check(TokenType.FN_KW)){
-            analyseFunction();
+            return analyseFunction();
         }
         else {
-            analyseDeclStmt();
+            return analyseDeclStmt();
         }
     }
 
     private void analyseProgram() throws CompileError {
+        int program = ast.add(NodeKind.PROGRAM, -1);
         while (check(TokenType.FN_KW) || check(TokenType.LET_KW) || check(TokenType.CONST_KW)) {
-            analyseItem();
+            int item = analyseItem();
+            if (keepAst) {
+                ast.appendChild(program, item);
+            } else {
+                ast.truncate(program + 1);
+            }
         }
+        ast.setRoot(program);
+        ast.trimToSize();
     }
 }
@@ -0,0 +1,200 @@
+package miniplc0java.ast;
+
+import java.util.Arrays;
+
+import miniplc0java.tokenizer.TokenBuffer;
+
+/**
+ * 语法树，所有节点放在一个由几个基本类型数组组成的 arena 里，节点就是数组下标
+ * <p>
+ * 每个节点只记种类、第一个子节点、下一个兄弟节点和对应 token 的下标，共 13 个字节，
+ * 子节点用链表串起来，-1 表示没有。token 的下标指向 getTokens() 里的 token，
+ * 流式分析时没有 TokenBuffer，下标是 token 在输入里的序号。
+ */
+public class Ast {
+    private static final NodeKind[] NODE_KINDS = NodeKind.values();
+
+    byte[] kinds = new byte[1024];
+    int[] firstChild = new int[1024];
+    int[] nextSibling = new int[1024];
+    int[] tokens = new int[1024];
+    int size = 0;
+
+    // 构造时用来把子节点接在末尾，trimToSize 之后就不要了
+    int[] lastChild = new int[1024];
+
+    int root = -1;
+
+    TokenBuffer tokenBuffer;
+
+    /**
+     * @param tokenBuffer 节点的 token 下标指向这里，可以为 null
+     */
+    public Ast(TokenBuffer tokenBuffer) {
+        this.tokenBuffer = tokenBuffer;
+    }
+
+    /**
+     * 添加一个还没有子节点的节点
+     *
+     * @param token 对应 token 的下标，没有时为 -1
+     * @return 节点的下标
+     */
+    public int add(NodeKind kind, int token) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        firstChild[size] = -1;
+        nextSibling[size] = -1;
+        lastChild[size] = -1;
+        tokens[size] = token;
+        return size++;
+    }
+
+    /**
+     * 把 child 接在 parent 的最后一个子节点后面
+     */
+    public void appendChild(int parent, int child) {
+        if (firstChild[parent] < 0) {
+            firstChild[parent] = child;
+        } else {
+            nextSibling[lastChild[parent]] = child;
+        }
+        lastChild[parent] = child;
+    }
+
+    /**
+     * 只留下前 size 个节点，留下的节点指向后面节点的链接也去掉
+     * 只能在 trimToSize 之前用，流式分析时用来丢掉已经分析完的函数
+     */
+    public void truncate(int size) {
+        for (int node = 0; node < size; node++) {
+            if (firstChild[node] >= size) {
+                firstChild[node] = -1;
+                lastChild[node] = -1;
+            } else if (lastChild[node] >= size) {
+                // 子节点是按下标从小到大接上的，找到最后一个留下的子节点
+                int child = firstChild[node];
+                while (nextSibling[child] >= 0 && nextSibling[child] < size) {
+                    child = nextSibling[child];
+                }
+                nextSibling[child] = -1;
+                lastChild[node] = child;
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * 构造完成后调用，去掉多余的容量，之后不能再添加子节点
+     */
+    public void trimToSize() {
+        kinds = Arrays.copyOf(kinds, size);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        tokens = Arrays.copyOf(tokens, size);
+        lastChild = null;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokenBuffer;
+    }
+
+    public NodeKind getKind(int node) {
+        return NODE_KINDS[kinds[node]];
+    }
+
+    /**
+     * @return 第一个子节点，没有时为 -1
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @return 下一个兄弟节点，没有时为 -1
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @return 对应 token 的下标，没有时为 -1
+     */
+    public int getToken(int node) {
+        return tokens[node];
+    }
+
+    /**
+     * 第 i 个子节点，没有时为 -1
+     */
+    public int getChild(int node, int i) {
+        int child = firstChild[node];
+        while (i > 0 && child >= 0) {
+            child = nextSibling[child];
+            i--;
+        }
+        return child;
+    }
+
+    public int getChildCount(int node) {
+        int count = 0;
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 从 node 开始深度优先遍历它的子树，用一个显式的栈，树再深也不会爆栈
+     */
+    public void walk(int node, AstVisitor visitor) {
+        int[] path = new int[64];
+        int depth = 0;
+        while (true) {
+            if (visitor.enter(this, node) && firstChild[node] >= 0) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = node;
+                node = firstChild[node];
+                continue;
+            }
+            visitor.exit(this, node);
+            // 往上找到第一个还有下一个兄弟的节点
+            while (depth > 0 && nextSibling[node] < 0) {
+                node = path[--depth];
+                visitor.exit(this, node);
+            }
+            if (depth == 0) {
+                return;
+            }
+            node = nextSibling[node];
+        }
+    }
+
+    /**
+     * 遍历整棵树
+     */
+    public void walk(AstVisitor visitor) {
+        walk(root, visitor);
+    }
+}
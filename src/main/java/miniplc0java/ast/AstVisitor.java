@@ -0,0 +1,21 @@
+package miniplc0java.ast;
+
+/**
+ * 按深度优先的顺序访问语法树，见 Ast.walk
+ */
+public interface AstVisitor {
+    /**
+     * 进入节点 node，还没有访问它的子节点
+     *
+     * @return 是否要访问它的子节点
+     */
+    default boolean enter(Ast ast, int node) {
+        return true;
+    }
+
+    /**
+     * 离开节点 node，它的子节点都访问完了（或者被跳过了）
+     */
+    default void exit(Ast ast, int node) {
+    }
+}
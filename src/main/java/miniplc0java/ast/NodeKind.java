@@ -0,0 +1,53 @@
+package miniplc0java.ast;
+
+/**
+ * 语法树节点的种类，注释里是节点的 token 和子节点
+ */
+public enum NodeKind {
+    /** 无 token；子节点是全局的声明和函数 */
+    PROGRAM,
+    /** 函数名；子节点是若干 PARAM 或 CONST_PARAM、返回类型 TYPE、函数体 BLOCK */
+    FUNCTION,
+    /** 参数名；子节点是 TYPE */
+    PARAM,
+    /** 参数名；子节点是 TYPE */
+    CONST_PARAM,
+    /** 类型名；没有子节点 */
+    TYPE,
+
+    /** 变量名；子节点是 TYPE 和可选的初始值表达式 */
+    LET_DECL,
+    /** 常量名；子节点是 TYPE 和初始值表达式 */
+    CONST_DECL,
+    /** 无 token；子节点是块里的语句 */
+    BLOCK,
+    /** if；子节点是条件、BLOCK 和可选的 else 部分（IF 或者 BLOCK） */
+    IF,
+    /** while；子节点是条件和 BLOCK */
+    WHILE,
+    /** break；没有子节点 */
+    BREAK,
+    /** continue；没有子节点 */
+    CONTINUE,
+    /** return；子节点是可选的返回值表达式 */
+    RETURN,
+    /** 无 token；子节点是表达式 */
+    EXPR_STMT,
+    /** 分号；没有子节点 */
+    EMPTY_STMT,
+
+    /** 字面量；没有子节点 */
+    LITERAL,
+    /** 标识符；没有子节点 */
+    IDENT,
+    /** 函数名；子节点是参数表达式 */
+    CALL,
+    /** 前置的 -；子节点是操作数 */
+    NEGATE,
+    /** 运算符；子节点是左右两个操作数 */
+    BINARY,
+    /** =；子节点是被赋值的 IDENT 和值 */
+    ASSIGN,
+    /** as；子节点是操作数和 TYPE */
+    CAST,
+}
@@ -2,6 +2,8 @@ package miniplc0java.instruction;
 
 import java.util.Objects;
 
+import miniplc0java.util.LineWriter;
+
 public class Instruction {
     private Operation opt;
     Integer x;
@@ -33,7 +35,8 @@ public class Instruction {
 
     @Override
     public int hashCode() {
-        return Objects.hash(opt, x);
+        // 和 Objects.hash(opt, x) 一样，但不用创建数组
+        return 31 * (31 + Objects.hashCode(opt)) + Objects.hashCode(x);
     }
 
     public Operation getOpt() {
@@ -54,20 +57,20 @@ public class Instruction {
 
     @Override
     public String toString() {
-        switch (this.opt) {
-            case ADD:
-            case DIV:
-            case ILL:
-            case MUL:
-            case SUB:
-            case WRT:
-                return String.format("%s", this.opt);
-            case LIT:
-            case LOD:
-            case STO:
-                return String.format("%s %s", this.opt, this.x);
-            default:
-                return "ILL";
+        if (opt.hasOperand()) {
+            return opt.name() + " " + x;
+        }
+        return opt.name();
+    }
+
+    /**
+     * 和 toString 一样的文本加上换行，直接写进 out，不创建 String
+     */
+    public static void writeLine(LineWriter out, Operation opt, int x) {
+        out.append(opt.name());
+        if (opt.hasOperand()) {
+            out.append(' ').append(x);
         }
+        out.newLine();
     }
 }
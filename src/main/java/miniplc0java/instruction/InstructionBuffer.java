@@ -0,0 +1,116 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 代码生成用的指令缓冲区，每条指令压成一个 long：高 32 位是操作码（Operation 的序号），低 32 位是操作数
+ * <p>
+ * 比 List&lt;Instruction&gt; 省内存（每条 8 字节，没有 Instruction 和 Integer 对象），
+ * 可以按下标随时改操作数，生成跳转时先占个位，知道目标之后再回填。
+ */
+public class InstructionBuffer implements InstructionSink {
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private long[] code;
+    private int size = 0;
+
+    public InstructionBuffer() {
+        this(64);
+    }
+
+    public InstructionBuffer(int capacity) {
+        code = new long[Math.max(capacity, 16)];
+    }
+
+    public static InstructionBuffer of(List<Instruction> instructions) {
+        var buffer = new InstructionBuffer(instructions.size());
+        for (var inst : instructions) {
+            buffer.add(inst.getOpt(), inst.getX());
+        }
+        return buffer;
+    }
+
+    private static long pack(Operation opt, int x) {
+        return (long) opt.ordinal() << 32 | x & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 加一条指令
+     *
+     * @return 这条指令的下标，回填时用
+     */
+    public int add(Operation opt, int x) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size] = pack(opt, x);
+        return size++;
+    }
+
+    public int add(Operation opt) {
+        return add(opt, 0);
+    }
+
+    @Override
+    public void emit(Operation opt, int x) {
+        add(opt, x);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Operation getOpt(int index) {
+        return OPERATIONS[getOpcode(index)];
+    }
+
+    /**
+     * 第 index 条指令的操作码，是 Operation 的序号
+     */
+    public int getOpcode(int index) {
+        return (int) (code[checkIndex(index)] >>> 32);
+    }
+
+    public int getX(int index) {
+        return (int) code[checkIndex(index)];
+    }
+
+    /**
+     * 回填第 index 条指令的操作数
+     */
+    public void setX(int index, int x) {
+        checkIndex(index);
+        code[index] = code[index] & 0xFFFFFFFF00000000L | x & 0xFFFFFFFFL;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return index;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 把所有指令按顺序发给 sink，然后清空
+     */
+    public void drainTo(InstructionSink sink) {
+        for (int i = 0; i < size; i++) {
+            sink.emit(OPERATIONS[(int) (code[i] >>> 32)], (int) code[i]);
+        }
+        size = 0;
+    }
+
+    public List<Instruction> toList() {
+        var instructions = new ArrayList<Instruction>(size);
+        for (int i = 0; i < size; i++) {
+            instructions.add(new Instruction(OPERATIONS[(int) (code[i] >>> 32)], (int) code[i]));
+        }
+        return instructions;
+    }
+}
@@ -0,0 +1,30 @@
+package miniplc0java.instruction;
+
+/**
+ * 代码生成的输出：指令一条条发进来，不用等整个程序分析完
+ * <p>
+ * 一个函数的指令发完之后调用 endFunction，写文件的实现在这时把这个函数写出去；整个程序结束时调用 finish。
+ * 写文件出错时抛 UncheckedIOException。
+ */
+public interface InstructionSink {
+    /**
+     * 发出一条指令，没有操作数的指令 x 是 0
+     */
+    void emit(Operation opt, int x);
+
+    default void emit(Instruction instruction) {
+        emit(instruction.getOpt(), instruction.getX());
+    }
+
+    /**
+     * 上一次 endFunction 之后发出的指令是函数 name 的
+     */
+    default void endFunction(String name) {
+    }
+
+    /**
+     * 整个程序结束，之后不会再发指令
+     */
+    default void finish() {
+    }
+}
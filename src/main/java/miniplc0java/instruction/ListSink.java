@@ -0,0 +1,25 @@
+package miniplc0java.instruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把指令都留在内存里
+ */
+public class ListSink implements InstructionSink {
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    @Override
+    public void emit(Operation opt, int x) {
+        instructions.add(new Instruction(opt, x));
+    }
+
+    @Override
+    public void emit(Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+}
@@ -0,0 +1,281 @@
+package miniplc0java.instruction;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 二进制的目标文件，比文本小，加载时不用解析文本
+ * <p>
+ * 全部是小端，和 x86 上 int[] 在内存里的样子一样，指令段可以整块拷进数组：
+ * <pre>
+ * u4  魔数 "C0BJ"
+ * u2  版本，VERSION
+ * u2  保留，0
+ * u4  常量个数
+ * u4  函数个数
+ * u4  指令条数
+ * u4  指令 * 指令条数
+ * i4  常量 * 常量个数
+ * 函数 * 函数个数：u4 第一条指令的下标，u4 指令条数，u2 名字的长度，名字（UTF-8）
+ * </pre>
+ * 每条指令 4 字节，高 8 位是操作码（Operation 的序号），低 24 位是有符号的操作数；
+ * 操作数放不下 24 位时操作码加上 POOLED，低 24 位是常量池的下标。
+ * <p>
+ * 指令紧跟在文件头后面，常量池和函数表放在最后，这样可以边生成边写（见 ObjectFileSink），
+ * 最后再回头填文件头里的个数。
+ */
+public final class ObjectFile {
+    public static final int MAGIC = 0x4A423043; // "C0BJ"，小端
+    public static final int VERSION = 2;
+    /** 操作数在常量池里 */
+    static final int POOLED = 0x80;
+
+    static final int HEADER_SIZE = 20;
+    private static final int OPERAND_MIN = -(1 << 23);
+    private static final int OPERAND_MAX = (1 << 23) - 1;
+    private static final String MAIN = "main";
+
+    private final int[] opcodes;
+    private final int[] operands;
+
+    private ObjectFile(int[] opcodes, int[] operands) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+    }
+
+    /**
+     * 每条指令的操作码，是 Operation 的序号
+     */
+    public int[] getOpcodes() {
+        return opcodes;
+    }
+
+    public int[] getOperands() {
+        return operands;
+    }
+
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * 把指令编码成 4 字节的字，记下常量池和函数表，最后生成文件头和文件尾
+     */
+    static final class Encoder {
+        private final HashMap<Integer, Integer> pool = new HashMap<>();
+        private int[] constants = new int[16];
+        private final ArrayList<byte[]> names = new ArrayList<>();
+        // 每个函数两项：第一条指令的下标，指令条数
+        private int[] functions = new int[16];
+        /** 已经编码的指令条数 */
+        int count = 0;
+        /** 当前函数的第一条指令 */
+        private int functionStart = 0;
+
+        int encode(Operation opt, int x) {
+            int opcode = opt.ordinal();
+            if (x < OPERAND_MIN || x > OPERAND_MAX) {
+                Integer index = pool.get(x);
+                if (index == null) {
+                    index = pool.size();
+                    pool.put(x, index);
+                    if (index == constants.length) {
+                        constants = Arrays.copyOf(constants, index * 2);
+                    }
+                    constants[index] = x;
+                }
+                opcode |= POOLED;
+                x = index;
+            }
+            count++;
+            return opcode << 24 | x & 0xFFFFFF;
+        }
+
+        /**
+         * 从上一个函数结束到现在的指令是函数 name 的
+         */
+        void endFunction(String name) {
+            int i = names.size();
+            if (2 * i == functions.length) {
+                functions = Arrays.copyOf(functions, functions.length * 2);
+            }
+            functions[2 * i] = functionStart;
+            functions[2 * i + 1] = count - functionStart;
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+            functionStart = count;
+        }
+
+        /**
+         * 最后一个函数之后还有指令时，放进一个没有名字的函数里
+         */
+        void endProgram() {
+            if (count > functionStart) {
+                endFunction("");
+            }
+        }
+
+        ByteBuffer header() {
+            var buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putShort((short) VERSION);
+            buffer.putShort((short) 0);
+            buffer.putInt(pool.size());
+            buffer.putInt(names.size());
+            buffer.putInt(count);
+            return buffer.flip();
+        }
+
+        int trailerSize() {
+            int size = 4 * pool.size();
+            for (var name : names) {
+                size += 4 + 4 + 2 + name.length;
+            }
+            return size;
+        }
+
+        void putTrailer(ByteBuffer buffer) {
+            buffer.asIntBuffer().put(constants, 0, pool.size());
+            buffer.position(buffer.position() + 4 * pool.size());
+            for (int i = 0; i < names.size(); i++) {
+                buffer.putInt(functions[2 * i]);
+                buffer.putInt(functions[2 * i + 1]);
+                buffer.putShort((short) names.get(i).length);
+                buffer.put(names.get(i));
+            }
+        }
+    }
+
+    /**
+     * 编码成目标文件的内容，整个程序是一个叫 main 的函数，position 为 0，limit 是文件的大小
+     */
+    public static ByteBuffer encode(List<Instruction> instructions) {
+        int n = instructions.size();
+        var encoder = new Encoder();
+        var words = new int[n];
+        for (int i = 0; i < n; i++) {
+            var inst = instructions.get(i);
+            words[i] = encoder.encode(inst.getOpt(), inst.getX());
+        }
+        encoder.endFunction(MAIN);
+
+        // 直接内存，写文件时不用再拷到临时的直接内存里
+        var buffer = ByteBuffer.allocateDirect(HEADER_SIZE + 4 * n + encoder.trailerSize())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(encoder.header());
+        buffer.asIntBuffer().put(words);
+        buffer.position(HEADER_SIZE + 4 * n);
+        encoder.putTrailer(buffer);
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * 写到 channel 里
+     */
+    public static void write(List<Instruction> instructions, WritableByteChannel channel) throws IOException {
+        var buffer = encode(instructions);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static void write(List<Instruction> instructions, Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(instructions, channel);
+        }
+    }
+
+    /**
+     * 读一个目标文件，文件直接映射进内存
+     */
+    public static ObjectFile read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * 解码目标文件的内容
+     *
+     * @throws IOException 内容不是合法的目标文件
+     */
+    public static ObjectFile decode(ByteBuffer buffer) throws IOException {
+        buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a C0 object file");
+            }
+            int version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported object file version " + version);
+            }
+            buffer.getShort();
+            int constantCount = buffer.getInt();
+            int functionCount = buffer.getInt();
+            int n = buffer.getInt();
+            if (constantCount < 0 || functionCount < 0 || n < 0
+                    || 4L * constantCount + 4L * n > buffer.remaining()) {
+                throw new IOException("Corrupted object file header");
+            }
+
+            // 整块拷出来再拆开
+            var opcodes = new int[n];
+            buffer.asIntBuffer().get(opcodes);
+            buffer.position(buffer.position() + 4 * n);
+            var constants = new int[constantCount];
+            buffer.asIntBuffer().get(constants);
+            buffer.position(buffer.position() + 4 * constantCount);
+            for (int i = 0; i < functionCount; i++) {
+                // 执行时用不到函数表，只检查是不是完整
+                buffer.getInt();
+                buffer.getInt();
+                int nameLength = Short.toUnsignedInt(buffer.getShort());
+                buffer.position(buffer.position() + nameLength);
+            }
+
+            var operands = new int[n];
+            int maxOpcode = Operation.values().length - 1;
+            for (int i = 0; i < n; i++) {
+                int word = opcodes[i];
+                int opcode = word >>> 24;
+                int x = word << 8 >> 8;
+                if ((opcode & POOLED) != 0) {
+                    opcode &= ~POOLED;
+                    x = constants[x];
+                }
+                if (opcode > maxOpcode) {
+                    throw new IOException("Invalid opcode " + opcode + " at instruction " + i);
+                }
+                opcodes[i] = opcode;
+                operands[i] = x;
+            }
+            return new ObjectFile(opcodes, operands);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupted object file", e);
+        }
+    }
+
+    /**
+     * 转换回指令表
+     */
+    public List<Instruction> toInstructions() {
+        var operations = Operation.values();
+        var instructions = new ArrayList<Instruction>(opcodes.length);
+        for (int i = 0; i < opcodes.length; i++) {
+            instructions.add(new Instruction(operations[opcodes[i]], operands[i]));
+        }
+        return instructions;
+    }
+}
@@ -0,0 +1,78 @@
+package miniplc0java.instruction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 边生成边写目标文件：指令攒在一个固定大小的缓冲区里，满了或者一个函数结束时写出去，
+ * 常量池和函数表留在内存里，finish 时写在最后，再回头填文件头
+ * <p>
+ * 要回头写文件头，所以只能写到 FileChannel 里，从 channel 当前的位置开始写。
+ */
+public class ObjectFileSink implements InstructionSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long start;
+    private final ObjectFile.Encoder encoder = new ObjectFile.Encoder();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    public ObjectFileSink(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.start = channel.position();
+        // 文件头最后再填
+        channel.position(start + ObjectFile.HEADER_SIZE);
+    }
+
+    @Override
+    public void emit(Operation opt, int x) {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.putInt(encoder.encode(opt, x));
+    }
+
+    @Override
+    public void endFunction(String name) {
+        encoder.endFunction(name);
+        flush();
+    }
+
+    @Override
+    public void finish() {
+        encoder.endProgram();
+        flush();
+        try {
+            var trailer = ByteBuffer.allocate(encoder.trailerSize()).order(ByteOrder.LITTLE_ENDIAN);
+            encoder.putTrailer(trailer);
+            writeFully(trailer.flip());
+            long end = channel.position();
+            var header = encoder.header();
+            while (header.hasRemaining()) {
+                channel.write(header, start + header.position());
+            }
+            channel.position(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+}
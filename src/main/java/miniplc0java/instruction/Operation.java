@@ -1,5 +1,18 @@
 package miniplc0java.instruction;
 
 public enum Operation {
-    ILL, LIT, LOD, STO, ADD, SUB, MUL, DIV, WRT
+    ILL(false), LIT(true), LOD(true), STO(true), ADD(false), SUB(false), MUL(false), DIV(false), WRT(false);
+
+    private final boolean hasOperand;
+
+    Operation(boolean hasOperand) {
+        this.hasOperand = hasOperand;
+    }
+
+    /**
+     * 文本格式里后面有没有操作数
+     */
+    public boolean hasOperand() {
+        return hasOperand;
+    }
 }
@@ -0,0 +1,24 @@
+package miniplc0java.instruction;
+
+import miniplc0java.util.LineWriter;
+
+/**
+ * 按文本格式一行一条写出去，攒满 out 的缓冲区才真正写一次，finish 时 flush
+ */
+public class TextSink implements InstructionSink {
+    private final LineWriter out;
+
+    public TextSink(LineWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    public void emit(Operation opt, int x) {
+        Instruction.writeLine(out, opt, x);
+    }
+
+    @Override
+    public void finish() {
+        out.flush();
+    }
+}
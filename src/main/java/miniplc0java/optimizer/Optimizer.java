@@ -0,0 +1,291 @@
+package miniplc0java.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.InstructionSink;
+import miniplc0java.instruction.Operation;
+
+/**
+ * 代码生成之后的窥孔优化
+ * <p>
+ * 优化等级：
+ * <ul>
+ * <li>0：不优化</li>
+ * <li>1：常量折叠，LIT a; LIT b; MUL 变成 LIT a*b。除以 0 不折叠，留到运行时出错</li>
+ * <li>2：再加上代数化简（LIT 0; ADD、LIT 0; SUB、LIT 1; MUL、LIT 1; DIV 直接删掉），
+ * 以及删掉什么都不做的 LOD x; STO x</li>
+ * </ul>
+ * 指令一条条放进输出，每放一条就看输出的末尾能不能化简，这样化简出来的新指令还能接着和前面的化简。
+ * 程序里没有跳转，每条指令执行前栈有多深是确定的，只在不改变出错行为的地方化简：
+ * 一旦遇到一定会出错的指令（从空栈弹出、LOD/STO 越界、ILL），后面的原样保留。
+ * <p>
+ * 同一个 Optimizer 可以在多个线程里同时用，统计是累加的，见 report。
+ * <p>
+ * 流式生成代码时用 wrap 套在输出外面，每个函数结束时把优化好的这个函数交给下一个 sink，化简不跨过函数的边界。
+ */
+public class Optimizer {
+    public static final int MAX_LEVEL = 2;
+
+    private final int level;
+
+    // 统计
+    private final AtomicLong programs = new AtomicLong();
+    private final AtomicLong before = new AtomicLong();
+    private final AtomicLong after = new AtomicLong();
+    private final AtomicLong folded = new AtomicLong();
+    private final AtomicLong simplified = new AtomicLong();
+    private final AtomicLong loadStores = new AtomicLong();
+
+    public Optimizer(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Optimization level must be between 0 and " + MAX_LEVEL);
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 优化一个程序，不修改传进来的指令
+     */
+    public List<Instruction> optimize(List<Instruction> instructions) {
+        if (level == 0) {
+            return instructions;
+        }
+        var pass = new Pass(instructions.size());
+        for (var inst : instructions) {
+            pass.add(inst);
+        }
+        record(pass);
+        return pass.out;
+    }
+
+    /**
+     * 优化之后再交给 next，level 为 0 时直接返回 next
+     */
+    public InstructionSink wrap(InstructionSink next) {
+        if (level == 0) {
+            return next;
+        }
+        var pass = new Pass(16);
+        return new InstructionSink() {
+            @Override
+            public void emit(Operation opt, int x) {
+                pass.add(new Instruction(opt, x));
+            }
+
+            @Override
+            public void emit(Instruction instruction) {
+                pass.add(instruction);
+            }
+
+            @Override
+            public void endFunction(String name) {
+                pass.flush(next);
+                next.endFunction(name);
+            }
+
+            @Override
+            public void finish() {
+                pass.flush(next);
+                record(pass);
+                next.finish();
+            }
+        };
+    }
+
+    private void record(Pass pass) {
+        programs.incrementAndGet();
+        before.addAndGet(pass.added);
+        after.addAndGet(pass.flushed + pass.out.size());
+        folded.addAndGet(pass.folded);
+        simplified.addAndGet(pass.simplified);
+        loadStores.addAndGet(pass.loadStores);
+    }
+
+    /**
+     * 优化一个程序的过程
+     */
+    private class Pass {
+        final ArrayList<Instruction> out;
+        // depths[i] 是 out 里第 i 条指令执行前栈的深度
+        int[] depths;
+        // 目前为止的指令执行完后栈的深度
+        int depth = 0;
+        // 遇到过一定会出错的指令，从它开始都原样保留
+        boolean faulted = false;
+
+        // 加进来几条，已经 flush 出去几条
+        int added;
+        int flushed;
+
+        // 各种化简删掉了几条指令
+        int folded;
+        int simplified;
+        int loadStores;
+
+        Pass(int capacity) {
+            out = new ArrayList<>(capacity);
+            depths = new int[Math.max(capacity, 16)];
+        }
+
+        /**
+         * 加一条指令，能化简就化简
+         */
+        void add(Instruction inst) {
+            added++;
+            if (faulted || !isValid(inst)) {
+                // 从这里开始一定会出错，后面的不动
+                faulted = true;
+                out.add(inst);
+                return;
+            }
+            append(inst);
+            reduce();
+        }
+
+        /**
+         * 把目前的输出交给 next，之后的化简不会再碰到它们
+         */
+        void flush(InstructionSink next) {
+            for (var inst : out) {
+                next.emit(inst);
+            }
+            flushed += out.size();
+            out.clear();
+        }
+
+        /**
+         * 这条指令在当前的栈上执行会不会出错
+         */
+        boolean isValid(Instruction inst) {
+            switch (inst.getOpt()) {
+                case LIT:
+                    return true;
+                case LOD:
+                    return inst.getX() >= 0 && inst.getX() < depth;
+                case STO:
+                    return inst.getX() >= 0 && inst.getX() < depth - 1;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                    return depth >= 2;
+                case WRT:
+                    return depth >= 1;
+                default:
+                    return false;
+            }
+        }
+
+        void append(Instruction inst) {
+            if (out.size() == depths.length) {
+                depths = Arrays.copyOf(depths, depths.length * 2);
+            }
+            depths[out.size()] = depth;
+            out.add(inst);
+            depth += inst.getOpt() == Operation.LIT || inst.getOpt() == Operation.LOD ? 1 : -1;
+        }
+
+        /**
+         * 删掉从 from 开始的指令，栈的深度回到那条指令执行前
+         */
+        void truncate(int from) {
+            depth = depths[from];
+            out.subList(from, out.size()).clear();
+        }
+
+        /**
+         * 反复化简输出的末尾，直到不能再化简
+         */
+        void reduce() {
+            while (true) {
+                int n = out.size();
+                if (n == 0) {
+                    return;
+                }
+                var last = out.get(n - 1);
+                var op = last.getOpt();
+                boolean binary = op == Operation.ADD || op == Operation.SUB || op == Operation.MUL
+                        || op == Operation.DIV;
+
+                if (binary && n >= 3 && out.get(n - 2).getOpt() == Operation.LIT
+                        && out.get(n - 3).getOpt() == Operation.LIT) {
+                    int a = out.get(n - 3).getX();
+                    int b = out.get(n - 2).getX();
+                    if (op != Operation.DIV || b != 0) {
+                        truncate(n - 3);
+                        append(new Instruction(Operation.LIT, fold(op, a, b)));
+                        folded += 2;
+                        continue;
+                    }
+                }
+                if (level < 2) {
+                    return;
+                }
+                if (binary && n >= 2 && out.get(n - 2).getOpt() == Operation.LIT && depths[n - 2] >= 1
+                        && isIdentity(op, out.get(n - 2).getX())) {
+                    truncate(n - 2);
+                    simplified += 2;
+                    continue;
+                }
+                if (op == Operation.STO && n >= 2 && out.get(n - 2).getOpt() == Operation.LOD
+                        && out.get(n - 2).getX().equals(last.getX())) {
+                    // LOD 已经检查过 x 在栈里
+                    truncate(n - 2);
+                    loadStores += 2;
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    private static int fold(Operation op, int a, int b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return a / b;
+            default:
+                throw new IllegalArgumentException(op.toString());
+        }
+    }
+
+    /**
+     * x op k 是不是就是 x
+     */
+    private static boolean isIdentity(Operation op, int k) {
+        switch (op) {
+            case ADD:
+            case SUB:
+                return k == 0;
+            case MUL:
+            case DIV:
+                return k == 1;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 到目前为止优化了多少，一行
+     */
+    public String report() {
+        long removed = before.get() - after.get();
+        return String.format(
+                "-O%d: %d programs, %d -> %d instructions (-%d): %d by constant folding, %d by algebraic simplification, %d redundant LOD/STO",
+                level, programs.get(), before.get(), after.get(), removed, folded.get(), simplified.get(),
+                loadStores.get());
+    }
+}
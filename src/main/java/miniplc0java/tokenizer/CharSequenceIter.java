@@ -0,0 +1,38 @@
+package miniplc0java.tokenizer;
+
+/**
+ * 在内存里的一段文本上迭代的 StringIter，偏移就是 char 的下标
+ * <p>
+ * 文本可以是 StringBuilder，改了之后已经解析出来的 token 的值会跟着变，所以要配合 IncrementalTokenizer 使用。
+ */
+public class CharSequenceIter extends StringIter {
+    CharSequence text;
+
+    public CharSequenceIter(CharSequence text) {
+        this.text = text;
+    }
+
+    @Override
+    protected int decodeAt(long at) {
+        if (at >= text.length()) {
+            return -1;
+        }
+        decodedWidth = 1;
+        return text.charAt((int) at);
+    }
+
+    @Override
+    protected long previousOffset(long at) {
+        return at - 1;
+    }
+
+    @Override
+    public String slice(long start, long end) {
+        return text.subSequence((int) start, (int) end).toString();
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package miniplc0java.tokenizer;
+
+import miniplc0java.error.TokenizeError;
+
+/**
+ * 给编辑器用的增量词法分析：文本改了一小段之后只重新解析受影响的 token
+ * <p>
+ * 词法分析在两个 token 之间没有状态，最多往 token 结尾之后看一个字符，
+ * 所以结尾在修改位置之前的 token 都不会变。从最后一个这样的 token 的结尾开始重新解析，
+ * 直到解析出来的某个 token 落在修改之后、并且起点和某个旧 token 挪过之后的起点重合，
+ * 后面的就都和以前一样了，只要把偏移挪一下。行号列号由行表算出来，行表也是这样局部更新的。
+ */
+public class IncrementalTokenizer {
+    private final StringBuilder text;
+
+    // 为 null 表示上一次修改之后解析出错了，下次用的时候要从头解析
+    private TokenBuffer tokens;
+
+    public IncrementalTokenizer(CharSequence source) throws TokenizeError {
+        this.text = new StringBuilder(source);
+        relexAll();
+    }
+
+    private void relexAll() throws TokenizeError {
+        tokens = null;
+        tokens = new Tokenizer(new CharSequenceIter(text)).tokenizeAll();
+    }
+
+    /**
+     * 当前的文本，之后的修改会反映在这里
+     */
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * 当前文本的全部 token，最后一个是 EOF
+     *
+     * @throws TokenizeError 上一次修改之后的文本有词法错误
+     */
+    public TokenBuffer getTokens() throws TokenizeError {
+        if (tokens == null) {
+            relexAll();
+        }
+        return tokens;
+    }
+
+    /**
+     * 把 [offset, offset + removed) 换成 inserted，然后更新 token
+     * 出错的时候文本还是改了，等下一次修改把错误改掉
+     *
+     * @return 重新解析了几个 token
+     * @throws TokenizeError 修改之后的文本有词法错误
+     */
+    public int edit(int offset, int removed, CharSequence inserted) throws TokenizeError {
+        if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("edit [" + offset + ", " + (offset + removed) + ") out of text");
+        }
+        text.replace(offset, offset + removed, inserted.toString());
+        if (tokens == null) {
+            relexAll();
+            return tokens.size();
+        }
+        int delta = inserted.length() - removed;
+        var lines = tokens.getLineTable();
+        lines.edit(offset, removed, inserted);
+
+        // 结尾在 offset 之前的 token 不受影响
+        int first = countEndingBefore(offset);
+        long restart = first > 0 ? tokens.getEndOffset(first - 1) : 0;
+        // 从这里开始文本和以前一样，旧 token 的起点挪过 delta 之后可以用来对齐
+        long unchangedFrom = offset + inserted.length();
+
+        var iter = new CharSequenceIter(text);
+        iter.seek(restart, lines);
+        var tokenizer = new Tokenizer(iter);
+        var relexed = new TokenBuffer(iter, lines);
+        int old = first;
+        try {
+            while (true) {
+                var tokenType = tokenizer.lexToken(Long.MAX_VALUE);
+                long start = tokenizer.lastTokenStart();
+                if (start >= unchangedFrom) {
+                    while (old < tokens.size() && tokens.getStartOffset(old) + delta < start) {
+                        old++;
+                    }
+                    if (old < tokens.size() && tokens.getStartOffset(old) + delta == start) {
+                        // 对上了，从第 old 个开始的旧 token 都还能用
+                        break;
+                    }
+                }
+                tokenizer.appendTo(relexed, tokenType);
+                if (tokenType == TokenType.EOF) {
+                    old = tokens.size();
+                    break;
+                }
+            }
+        } catch (TokenizeError e) {
+            tokens = null;
+            throw e;
+        }
+        tokens.splice(first, old, relexed, delta);
+        return relexed.size();
+    }
+
+    /**
+     * 结尾在 offset 之前的 token 有几个
+     */
+    private int countEndingBefore(long offset) {
+        int lo = 0;
+        int hi = tokens.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens.getEndOffset(mid) < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
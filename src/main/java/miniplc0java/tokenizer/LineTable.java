@@ -0,0 +1,119 @@
+package miniplc0java.tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * 记录每一行起点的偏移，用来把偏移换回行号
+ */
+public class LineTable {
+    // 第一条记录对应的行号
+    int firstRow;
+    long[] lineStarts = new long[64];
+    int count = 0;
+
+    /**
+     * @param firstRow       第一行的行号
+     * @param firstLineStart 第一行起点的偏移
+     */
+    public LineTable(int firstRow, long firstLineStart) {
+        this.firstRow = firstRow;
+        add(firstLineStart);
+    }
+
+    void add(long lineStart) {
+        if (count == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, count * 2);
+        }
+        lineStarts[count++] = lineStart;
+    }
+
+    void removeLast() {
+        if (count > 1) {
+            count--;
+        }
+    }
+
+    /**
+     * 输入里 [offset, offset + removed) 被换成了 inserted，跟着更新行首
+     */
+    void edit(long offset, int removed, CharSequence inserted) {
+        // 被删掉的 \n 后面的行首在 (offset, offset + removed] 里
+        int from = indexAfter(offset);
+        int to = indexAfter(offset + removed);
+        int added = 0;
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n') {
+                added++;
+            }
+        }
+        int tail = count - to;
+        if (from + added + tail > lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, Math.max(lineStarts.length * 2, from + added + tail));
+        }
+        System.arraycopy(lineStarts, to, lineStarts, from + added, tail);
+        long delta = inserted.length() - removed;
+        for (int i = from + added; i < from + added + tail; i++) {
+            lineStarts[i] += delta;
+        }
+        int k = from;
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n') {
+                lineStarts[k++] = offset + i + 1;
+            }
+        }
+        count = from + added + tail;
+    }
+
+    /**
+     * 第一个起点大于 at 的行在 lineStarts 里的下标
+     */
+    private int indexAfter(long at) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lineStarts[mid] <= at) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 偏移 at 所在的行号
+     */
+    public int rowOf(long at) {
+        int lo = 0;
+        int hi = count - 1;
+        // 找最后一个起点 <= at 的行
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= at) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return firstRow + lo;
+    }
+
+    /**
+     * 第 row 行起点的偏移
+     */
+    public long lineStart(int row) {
+        return lineStarts[row - firstRow];
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * 记录了多少行
+     */
+    public int size() {
+        return count;
+    }
+}
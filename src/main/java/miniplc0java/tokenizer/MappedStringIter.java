@@ -0,0 +1,107 @@
+package miniplc0java.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 直接在 UTF-8 字节上迭代的 StringIter，一般用在内存映射的文件上
+ * <p>
+ * 这里的偏移是字节偏移，字符只在被读到的时候才解码，token 的值也可以等到真正需要时再从字节里取，
+ * 所以整个文件不用先解码成 String。
+ * 四字节的 UTF-8 序列（BMP 之外的字符）只返回高位代理，列号按一个字符算。
+ */
+public class MappedStringIter extends StringIter {
+    /** 一个 MappedByteBuffer 最多能映射的字节数 */
+    public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+    ByteBuffer buffer;
+    int limit;
+
+    /**
+     * @param buffer UTF-8 编码的输入，从 0 读到 limit
+     */
+    public MappedStringIter(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    @Override
+    protected int decodeAt(long at) {
+        if (at >= limit) {
+            return -1;
+        }
+        int i = (int) at;
+        int b = buffer.get(i);
+        if (b >= 0) {
+            decodedWidth = 1;
+            return b;
+        }
+        int width;
+        int cp;
+        if ((b & 0xE0) == 0xC0) {
+            width = 2;
+            cp = b & 0x1F;
+        } else if ((b & 0xF0) == 0xE0) {
+            width = 3;
+            cp = b & 0x0F;
+        } else if ((b & 0xF8) == 0xF0) {
+            width = 4;
+            cp = b & 0x07;
+        } else {
+            // 不是合法的首字节
+            decodedWidth = 1;
+            return 0xFFFD;
+        }
+        if (i + width > limit) {
+            decodedWidth = limit - i;
+            return 0xFFFD;
+        }
+        for (int k = 1; k < width; k++) {
+            int c = buffer.get(i + k);
+            if ((c & 0xC0) != 0x80) {
+                decodedWidth = k;
+                return 0xFFFD;
+            }
+            cp = (cp << 6) | (c & 0x3F);
+        }
+        decodedWidth = width;
+        if (cp > 0xFFFF) {
+            return Character.highSurrogate(cp);
+        }
+        return cp;
+    }
+
+    @Override
+    protected long previousOffset(long at) {
+        int i = (int) at - 1;
+        // 往回跳过 UTF-8 的后续字节 10xxxxxx
+        while (i > 0 && (buffer.get(i) & 0xC0) == 0x80 && at - i < 4) {
+            i--;
+        }
+        return i;
+    }
+
+    @Override
+    public int columnBetween(long lineStart, long at) {
+        // 数一下不是 10xxxxxx 的字节
+        int col = 0;
+        for (int i = (int) lineStart; i < at; i++) {
+            if ((buffer.get(i) & 0xC0) != 0x80) {
+                col++;
+            }
+        }
+        return col;
+    }
+
+    @Override
+    public String slice(long start, long end) {
+        var bytes = new byte[(int) (end - start)];
+        buffer.duplicate().position((int) start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+package miniplc0java.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import miniplc0java.error.TokenizeError;
+
+/**
+ * 把一个大文件按行切成几段，在 ForkJoinPool 上并行解析，再拼成一个 TokenBuffer
+ * <p>
+ * 词法分析在两个 token 之间没有状态，所以只要从一个真正的 token 边界开始，分段解析的结果就和顺序解析一样。
+ * 切分点都在行首，注释和字符字面量都不会跨行，但字符串可以，所以行首不一定是 token 边界。
+ * 每一段先假设自己的开头就是边界，猜着解析；拼接的时候按顺序检查：
+ * 上一个 token 没有越过这一段的开头，这一段就猜对了，直接用；
+ * 越过了，就从那个 token 的结尾开始顺序解析，直到某个 token 的起点和后面猜出来的某个 token 重合，之后的又可以直接用。
+ * 猜着解析时遇到的错误不一定是真的，也是顺序解析到那里来确认，报错的位置由顺序解析给出。
+ */
+public class ParallelTokenizer {
+    /** 每一段至少这么多字节，再小的话调度的开销就比省下来的多了 */
+    public static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * 一段输入 [start, end) 和它猜着解析出来的结果
+     */
+    private static class Chunk implements Runnable {
+        final ByteBuffer buffer;
+        final int start;
+        final int end;
+        final boolean last;
+
+        // 这一段里每一行的起点，第一条是 start
+        LineTable lines;
+        TokenBuffer tokens;
+        // tokens 里前 validCount 个是正常解析出来的，后面是 EOF 或者什么都没有（出错了）
+        int validCount;
+        boolean failed;
+
+        Chunk(ByteBuffer buffer, int start, int end, boolean last) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.last = last;
+        }
+
+        @Override
+        public void run() {
+            lines = new LineTable(0, start);
+            for (int i = start; i < end; i++) {
+                // 这一段最后的 \n 之后是下一段的第一行，由下一段记
+                if (buffer.get(i) == '\n' && (i + 1 < end || last)) {
+                    lines.add(i + 1);
+                }
+            }
+            var iter = new MappedStringIter(buffer);
+            iter.seek(start, lines);
+            tokens = new TokenBuffer(iter, lines);
+            try {
+                new Tokenizer(iter).tokenizeInto(tokens, end);
+                validCount = tokens.size() - 1;
+            } catch (TokenizeError e) {
+                validCount = tokens.size();
+                failed = true;
+            }
+        }
+
+        /**
+         * 猜出来的 token 里起点正好是 offset 的那个的下标，没有的话返回负数
+         */
+        int indexOfStart(long offset) {
+            return Arrays.binarySearch(tokens.startOffsets, 0, validCount, (int) offset);
+        }
+    }
+
+    /**
+     * 用公共的 ForkJoinPool 解析整个输入，段的大小按并行度定
+     *
+     * @param source 还没开始读的输入
+     * @throws TokenizeError 和顺序解析时抛出的一样
+     */
+    public static TokenBuffer tokenize(MappedStringIter source) throws TokenizeError {
+        var pool = ForkJoinPool.commonPool();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, source.limit / (pool.getParallelism() * 4));
+        return tokenize(source, pool, chunkSize);
+    }
+
+    /**
+     * @param source    还没开始读的输入
+     * @param pool      在这里并行解析
+     * @param chunkSize 每一段大约多少字节，段的结尾会往后挪到行尾
+     * @throws TokenizeError 和顺序解析时抛出的一样
+     */
+    public static TokenBuffer tokenize(MappedStringIter source, ForkJoinPool pool, int chunkSize)
+            throws TokenizeError {
+        var chunks = split(source.buffer, source.limit, chunkSize);
+        if (chunks.size() == 1) {
+            return new Tokenizer(source).tokenizeAll();
+        }
+
+        var tasks = new ArrayList<ForkJoinTask<?>>();
+        for (var chunk : chunks) {
+            tasks.add(pool.submit(chunk));
+        }
+        for (var task : tasks) {
+            task.join();
+        }
+
+        // 拼起整个文件的行表
+        var lines = chunks.get(0).lines;
+        for (int k = 1; k < chunks.size(); k++) {
+            var chunkLines = chunks.get(k).lines;
+            for (int i = 0; i < chunkLines.count; i++) {
+                lines.add(chunkLines.lineStarts[i]);
+            }
+        }
+
+        var result = new TokenBuffer(source, lines);
+        // 下一个可以直接用的猜测结果是第 k 段的第 j 个 token
+        int k = 0;
+        int j = 0;
+        while (true) {
+            var chunk = chunks.get(k);
+            result.appendRange(chunk.tokens, j, chunk.validCount);
+            long end = result.size() > 0 ? result.getEndOffset(result.size() - 1) : 0;
+            if (!chunk.failed) {
+                if (chunk.last) {
+                    // 最后一段的 EOF 就是真的 EOF
+                    result.appendRange(chunk.tokens, chunk.validCount, chunk.validCount + 1);
+                    break;
+                }
+                if (end <= chunks.get(k + 1).start) {
+                    k++;
+                    j = 0;
+                    continue;
+                }
+            }
+
+            // 猜测在这里断了，从 end 开始顺序解析，直到和某一段猜出来的 token 对上
+            var iter = new MappedStringIter(source.buffer);
+            iter.seek(end, lines);
+            var tokenizer = new Tokenizer(iter);
+            j = -1;
+            while (j < 0) {
+                // 这里的错误是真的，直接抛出去
+                var tokenType = tokenizer.lexToken(Long.MAX_VALUE);
+                if (tokenType == TokenType.EOF) {
+                    tokenizer.appendTo(result, tokenType);
+                    result.trimToSize();
+                    return result;
+                }
+                long start = tokenizer.lastTokenStart();
+                while (k + 1 < chunks.size() && start >= chunks.get(k + 1).start) {
+                    k++;
+                }
+                j = chunks.get(k).indexOfStart(start);
+                if (j < 0) {
+                    tokenizer.appendTo(result, tokenType);
+                }
+            }
+        }
+        result.trimToSize();
+        return result;
+    }
+
+    /**
+     * 按 chunkSize 切分 [0, length)，每一段的结尾挪到下一个行首
+     */
+    private static List<Chunk> split(ByteBuffer buffer, int length, int chunkSize) {
+        var chunks = new ArrayList<Chunk>();
+        int start = 0;
+        while (true) {
+            int end = length - start > chunkSize ? start + chunkSize : length;
+            while (end < length && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            // 每一段用自己的 duplicate，免得几个线程共用一个 ByteBuffer 对象
+            chunks.add(new Chunk(buffer.duplicate(), start, end, end == length));
+            if (end == length) {
+                return chunks;
+            }
+            start = end;
+        }
+    }
+}
@@ -1,57 +1,237 @@
 package miniplc0java.tokenizer;
 
-import java.util.ArrayList;
-import java.util.Optional;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import miniplc0java.util.Pos;
 
 /**
  * 这是一个从 C++ 版本抄过来的字符迭代器
+ * <p>
+ * 现在改成了流式读取：只在一个固定大小的滑动窗口里保存字符，读到哪里填到哪里，
+ * 所以内存占用不随文件大小增长，第一个 token 也不用等整个文件读完。
  */
 public class StringIter {
-    // 以行为基础的缓冲区
-    ArrayList<String> linesBuffer = new ArrayList<>();
+    /** 滑动窗口的大小（字符数） */
+    static final int WINDOW_SIZE = 1 << 16;
 
-    Scanner scanner;
-    // 指向下一个要读取的字符
-    Pos ptrNext = new Pos(0, 0);
+    /** 窗口滑动时在当前指针之前保留的字符数，保证 unreadLast 能用 */
+    static final int HISTORY_SIZE = 16;
 
-    Pos ptr = new Pos(0, 0);
+    Reader reader;
 
-    boolean initialized = false;
+    // 滑动窗口，window[0] 对应输入中的绝对偏移 windowStart
+    char[] window;
+    long windowStart = 0;
+    int windowLength = 0;
+    boolean readerExhausted = false;
 
-    Optional<Character> peeked = Optional.empty();
+    // 当前 token 的起点，窗口滑动时不会丢掉它之后的字符；Long.MAX_VALUE 表示没有要留的 token
+    long markOffset = 0;
 
-    public StringIter(Scanner scanner) {
-        this.scanner = scanner;
+    // 指向下一个要读取的字符（绝对偏移）
+    long offset = 0;
+
+    // 上一次 decodeAt 读到的字符占了几个偏移单位
+    int decodedWidth = 1;
+
+    // 指针所在的行号和列号
+    int row = 0;
+    int col = 0;
+
+    // 上一行末尾 \n 的列号，用于跨行回退；-1 表示不知道
+    int lastLineEndCol = -1;
+
+    // 不为空时把每一行的起点记进去
+    LineTable lineTable;
+
+    public StringIter(Reader reader) {
+        this.reader = reader;
+        this.window = new char[WINDOW_SIZE];
+    }
+
+    public StringIter(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
     }
 
-    // 从这里开始其实是一个基于行号的缓冲区的实现
-    // 为了简单起见，我们没有单独拿出一个类实现
+    public StringIter(String source) {
+        this(new StringReader(source));
+    }
+
+    /**
+     * 给不走 Reader 的子类用，子类需要自己实现 decodeAt、previousOffset 和 slice
+     */
+    protected StringIter() {
+    }
+
+    // 从这里开始其实是一个基于滑动窗口的缓冲区的实现
     // 核心思想和 C 的文件输入输出类似，就是一个 buffer 加一个指针，有三个细节
-    // 1.缓冲区包括 \n
+    // 1.缓冲区按原样保存字符，行以 \n 分隔
     // 2.指针始终指向下一个要读取的 char
     // 3.行号和列号从 0 开始
 
-    // 一次读入全部内容，并且替换所有换行为 \n
-    // 这样其实是不合理的，这里只是简单起见这么实现
-    public void readAll() {
-        if (initialized) {
-            return;
+    /**
+     * 取偏移 at 处的字符，并把它占的偏移单位数记到 decodedWidth 里
+     * 这里的偏移是 char 的个数，必要时从 reader 里继续读
+     *
+     * @return 字符，读到结尾时返回 -1
+     */
+    protected int decodeAt(long at) {
+        while (at >= windowStart + windowLength) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        decodedWidth = 1;
+        return window[(int) (at - windowStart)];
+    }
+
+    /**
+     * 偏移 at 处字符的前一个字符的偏移
+     */
+    protected long previousOffset(long at) {
+        if (at <= windowStart) {
+            throw new Error("unread out of buffer");
+        }
+        return at - 1;
+    }
+
+    /**
+     * 取出 [start, end) 之间的原文
+     * 流式读取时只保证当前 token（mark 之后）还在窗口里
+     */
+    public String slice(long start, long end) {
+        if (start < windowStart || end > windowStart + windowLength) {
+            throw new Error("slice out of buffer");
+        }
+        return new String(window, (int) (start - windowStart), (int) (end - start));
+    }
+
+    /**
+     * 同一行里 [lineStart, at) 之间有几个字符，也就是 at 的列号
+     */
+    public int columnBetween(long lineStart, long at) {
+        return (int) (at - lineStart);
+    }
+
+    /**
+     * 开始（或者传 null 停止）把之后读到的每一行的起点记到 lineTable 里
+     */
+    public void recordLines(LineTable lineTable) {
+        this.lineTable = lineTable;
+    }
+
+    /**
+     * [start, end) 的原文是否就是 text，text 只能是 ASCII
+     * 不用先 slice 出字符串再比较
+     */
+    public boolean regionMatches(long start, long end, String text) {
+        if (end - start != text.length()) {
+            return false;
         }
-        while (scanner.hasNext()) {
-            linesBuffer.add(scanner.nextLine() + '\n');
+        for (int i = 0; i < text.length(); i++) {
+            if (decodeAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 是否能在之后任意时刻 slice 已经读过的内容
+     * 流式读取不行，所以 token 的值要当场取出来
+     */
+    public boolean isRandomAccess() {
+        return false;
+    }
+
+    /**
+     * 标记当前 token 的起点，在它之后的内容会一直留在窗口里直到下一次 mark
+     */
+    public void mark() {
+        markOffset = offset;
+    }
+
+    /**
+     * 上一个 token 的原文已经用完了，之后窗口只保留指针之前 HISTORY_SIZE 个字符
+     * 跳过空白和注释之前调用，否则很长的注释会一直留在窗口里
+     */
+    public void unmark() {
+        markOffset = Long.MAX_VALUE;
+    }
+
+    /**
+     * 窗口现在的大小（字符数），只有一个 token 比窗口还长时才会扩容
+     */
+    public int windowSize() {
+        return window == null ? 0 : window.length;
+    }
+
+    /**
+     * 把指针移到 at，从这里开始解析，行号列号从 lines 里算出来
+     * 只能用在能随机访问的输入上
+     *
+     * @param lines 至少要记到 at 所在的那一行
+     */
+    void seek(long at, LineTable lines) {
+        offset = at;
+        markOffset = at;
+        row = lines.rowOf(at);
+        long lineStart = lines.lineStart(row);
+        col = columnBetween(lineStart, at);
+        lastLineEndCol = row > lines.getFirstRow() ? columnBetween(lines.lineStart(row - 1), lineStart - 1) : -1;
+    }
+
+    /**
+     * 获取指针的偏移
+     */
+    public long currentOffset() {
+        return offset;
+    }
+
+    /**
+     * 向窗口里追加一批字符，同时丢掉指针之前已经用不到的部分
+     *
+     * @return 是否读到了新的字符
+     */
+    private boolean fill() {
+        if (readerExhausted) {
+            return false;
+        }
+        long keepFrom = Math.min(markOffset, Math.max(windowStart, offset - HISTORY_SIZE));
+        int drop = (int) (keepFrom - windowStart);
+        if (drop > 0) {
+            System.arraycopy(window, drop, window, 0, windowLength - drop);
+            windowStart += drop;
+            windowLength -= drop;
+        }
+        if (windowLength == window.length) {
+            // 一个 token 比整个窗口还长，只好扩容
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+        try {
+            int n = reader.read(window, windowLength, window.length - windowLength);
+            if (n < 0) {
+                readerExhausted = true;
+                return false;
+            }
+            windowLength += n;
+            return true;
+        } catch (IOException e) {
+            throw new Error("failed to read input", e);
         }
-        // todo:check read \n?
-        initialized = true;
     }
 
     // 一个简单的总结
     // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 偏移
     // | = | = | = | = | = | = | = | = | = | = |
-    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |（缓冲区第0行）
-    // | 7 | 1 | 1 | 4 | 5 | 1 | 4 | （缓冲区第1行）
+    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |（第0行）
+    // | 7 | 1 | 1 | 4 | 5 | 1 | 4 | （第1行）
     // 这里假设指针指向第一行的 \n，那么有
     // nextPos() = (1, 0)
     // currentPos() = (0, 9)
@@ -62,80 +242,129 @@ public class StringIter {
      * 获取下一个字符的位置
      */
     public Pos nextPos() {
-        if (ptr.row >= linesBuffer.size()) {
-            throw new Error("advance after EOF");
-        }
-        if (ptr.col == linesBuffer.get(ptr.row).length() - 1) {
-            return new Pos(ptr.row + 1, 0);
-        }
-        return new Pos(ptr.row, ptr.col + 1);
+        return Pos.unpack(nextPosPacked());
     }
 
     /**
      * 获取当前字符的位置
      */
     public Pos currentPos() {
-        return ptr;
+        return Pos.unpack(currentPosPacked());
     }
 
     /**
      * 获取上一个字符的位置
      */
     public Pos previousPos() {
-        if (ptr.row == 0 && ptr.col == 0) {
-            throw new Error("previous position from beginning");
+        return Pos.unpack(previousPosPacked());
+    }
+
+    /**
+     * nextPos 的压缩版本，见 Pos.pack
+     */
+    public long nextPosPacked() {
+        int ch = decodeAt(offset);
+        if (ch < 0) {
+            throw new Error("advance after EOF");
         }
-        if (ptr.col == 0) {
-            return new Pos(ptr.row - 1, linesBuffer.get(ptr.row - 1).length() - 1);
+        if (ch == '\n') {
+            return Pos.pack(row + 1, 0);
         }
-        return new Pos(ptr.row, ptr.col - 1);
+        return Pos.pack(row, col + 1);
     }
 
     /**
-     * 将指针指向下一个字符，并返回当前字符
+     * 当前字符的行号
      */
-    public char nextChar() {
-        if (this.peeked.isPresent()) {
-            char ch = this.peeked.get();
-            this.peeked = Optional.empty();
-            this.ptr = ptrNext;
-            return ch;
-        } else {
-            char ch = this.getNextChar();
-            this.ptr = ptrNext;
-            return ch;
+    public int currentRow() {
+        return row;
+    }
+
+    /**
+     * 当前字符的列号
+     */
+    public int currentCol() {
+        return col;
+    }
+
+    /**
+     * currentPos 的压缩版本，见 Pos.pack
+     */
+    public long currentPosPacked() {
+        return Pos.pack(row, col);
+    }
+
+    /**
+     * previousPos 的压缩版本，见 Pos.pack
+     */
+    public long previousPosPacked() {
+        if (offset == 0) {
+            throw new Error("previous position from beginning");
+        }
+        if (col == 0) {
+            if (lastLineEndCol < 0) {
+                throw new Error("previous position out of buffer");
+            }
+            return Pos.pack(row - 1, lastLineEndCol);
         }
+        return Pos.pack(row, col - 1);
     }
 
-    private char getNextChar() {
-        if (isEOF()) {
+    /**
+     * 将指针指向下一个字符，并返回当前字符
+     */
+    public char nextChar() {
+        int ch = decodeAt(offset);
+        if (ch < 0) {
             return 0;
         }
-        char result = linesBuffer.get(ptrNext.row).charAt(ptrNext.col);
-        ptrNext = nextPos();
-        return result;
+        offset += decodedWidth;
+        if (ch == '\n') {
+            lastLineEndCol = col;
+            row++;
+            col = 0;
+            if (lineTable != null) {
+                lineTable.add(offset);
+            }
+        } else {
+            col++;
+        }
+        return (char) ch;
     }
 
     /**
      * 查看下一个字符，但不移动指针
      */
     public char peekChar() {
-        if (peeked.isPresent()) {
-            return peeked.get();
-        } else {
-            char ch = getNextChar();
-            this.peeked = Optional.of(ch);
-            return ch;
-        }
+        int ch = decodeAt(offset);
+        return ch < 0 ? 0 : (char) ch;
     }
 
     public Boolean isEOF() {
-        return ptr.row >= linesBuffer.size();
+        return decodeAt(offset) < 0;
     }
 
     // Note: Is it evil to unread a buffer?
+    // 只保证能回退到上一行末尾，再往前就不知道列号了
     public void unreadLast() {
-        ptr = previousPos();
+        if (offset == 0) {
+            throw new Error("unread out of buffer");
+        }
+        long previous = previousOffset(offset);
+        if (col == 0) {
+            if (lastLineEndCol < 0) {
+                throw new Error("unread out of buffer");
+            }
+            row--;
+            col = lastLineEndCol;
+            lastLineEndCol = -1;
+            if (lineTable != null) {
+                lineTable.removeLast();
+            }
+        } else {
+            col--;
+        }
+        offset = previous;
     }
 
 }
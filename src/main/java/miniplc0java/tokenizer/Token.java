@@ -1,6 +1,7 @@
 package miniplc0java.tokenizer;
 
 import miniplc0java.error.TokenizeError;
+import miniplc0java.util.LineWriter;
 import miniplc0java.util.Pos;
 
 import java.util.Objects;
@@ -8,21 +9,74 @@ import java.util.Objects;
 public class Token {
     private TokenType tokenType;
     private Object value;
-    private Pos startPos;
-    private Pos endPos;
+    // 位置用 Pos.pack 压缩保存，getStartPos/getEndPos 时才创建 Pos
+    private long startPos;
+    private long endPos;
+    // token 在输入中的偏移范围 [startOffset, endOffset)，单位由 StringIter 决定
+    private long startOffset = -1;
+    private long endOffset = -1;
+    // 值还没有从输入里取出来时，保存输入
+    private StringIter source;
 
     public Token(TokenType tokenType, Object value, Pos startPos, Pos endPos) {
         this.tokenType = tokenType;
         this.value = value;
+        this.startPos = startPos.pack();
+        this.endPos = endPos.pack();
+    }
+
+    /**
+     * @param startPos 压缩过的位置，见 Pos.pack
+     * @param endPos   压缩过的位置，见 Pos.pack
+     */
+    public Token(TokenType tokenType, Object value, long startOffset, long endOffset, long startPos, long endPos) {
+        this.tokenType = tokenType;
+        this.value = value;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
         this.startPos = startPos;
         this.endPos = endPos;
     }
 
+    /**
+     * 值在第一次 getValue 的时候才从 source 里取出来
+     */
+    public Token(TokenType tokenType, StringIter source, long startOffset, long endOffset, long startPos,
+            long endPos) {
+        this(tokenType, (Object) null, startOffset, endOffset, startPos, endPos);
+        this.source = source;
+    }
+
     public Token(Token token) {
         this.tokenType = token.tokenType;
         this.value = token.value;
         this.startPos = token.startPos;
         this.endPos = token.endPos;
+        this.startOffset = token.startOffset;
+        this.endOffset = token.endOffset;
+        this.source = token.source;
+    }
+
+    /**
+     * 数字字面量的值在 Tokenizer 和 TokenBuffer 里存成 long：
+     * UINT_LITERAL 是 int 值，DOUBLE_LITERAL 是 double 的二进制表示
+     */
+    static Object literalValue(TokenType tokenType, long bits) {
+        if (tokenType == TokenType.DOUBLE_LITERAL) {
+            return Double.longBitsToDouble(bits);
+        }
+        return (int) bits;
+    }
+
+    /**
+     * 从原文里取出值就是原文的 token（标识符、字符串、字符）的值
+     */
+    static String lexemeValue(TokenType tokenType, StringIter source, long startOffset, long endOffset) {
+        // 字符串和字符字面量的值不包括两边的引号
+        if (tokenType == TokenType.STRING_LITERAL || tokenType == TokenType.CHAR_LITERAL) {
+            return source.slice(startOffset + 1, endOffset - 1);
+        }
+        return source.slice(startOffset, endOffset);
     }
 
     @Override
@@ -32,16 +86,17 @@ public class Token {
         if (o == null || getClass() != o.getClass())
             return false;
         Token token = (Token) o;
-        return tokenType == token.tokenType && Objects.equals(value, token.value)
-                && Objects.equals(startPos, token.startPos) && Objects.equals(endPos, token.endPos);
+        return tokenType == token.tokenType && Objects.equals(getValue(), token.getValue())
+                && startPos == token.startPos && endPos == token.endPos;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tokenType, value, startPos, endPos);
+        return Objects.hash(tokenType, getValue(), startPos, endPos);
     }
 
     public String getValueString() {
+        var value = getValue();
         if (value instanceof Integer || value instanceof String || value instanceof Character) {
             return value.toString();
         }
@@ -57,41 +112,70 @@ public class Token {
     }
 
     public Object getValue() {
+        if (source != null) {
+            value = lexemeValue(tokenType, source, startOffset, endOffset);
+            source = null;
+        }
         return value;
     }
 
     public void setValue(Object value) {
         this.value = value;
+        this.source = null;
     }
 
     public Pos getStartPos() {
-        return startPos;
+        return Pos.unpack(startPos);
     }
 
     public void setStartPos(Pos startPos) {
-        this.startPos = startPos;
+        this.startPos = startPos.pack();
     }
 
     public Pos getEndPos() {
-        return endPos;
+        return Pos.unpack(endPos);
     }
 
     public void setEndPos(Pos endPos) {
-        this.endPos = endPos;
+        this.endPos = endPos.pack();
+    }
+
+    public long getStartPosPacked() {
+        return startPos;
+    }
+
+    public long getEndPosPacked() {
+        return endPos;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    public long getEndOffset() {
+        return endOffset;
     }
 
     @Override
     public String toString() {
         var sb = new StringBuilder();
-        sb.append("Line: ").append(this.startPos.row).append(' ');
-        sb.append("Column: ").append(this.startPos.col).append(' ');
+        sb.append("Line: ").append(Pos.packedRow(this.startPos)).append(' ');
+        sb.append("Column: ").append(Pos.packedCol(this.startPos)).append(' ');
         sb.append("Type: ").append(this.tokenType).append(' ');
-        sb.append("Value: ").append(this.value);
+        sb.append("Value: ").append(getValue());
         return sb.toString();
     }
 
+    /**
+     * 按 toString 的格式写一行里值前面的部分，后面由调用者写值和换行，不用创建 Token
+     */
+    static LineWriter writePrefix(LineWriter out, long startPos, TokenType tokenType) {
+        return out.append("Line: ").append(Pos.packedRow(startPos)).append(" Column: ")
+                .append(Pos.packedCol(startPos)).append(" Type: ").append(tokenType.name()).append(" Value: ");
+    }
+
     public String toStringAlt() {
-        return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(value)
-                .append("at: ").append(this.startPos).toString();
+        return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(getValue())
+                .append("at: ").append(getStartPos()).toString();
     }
 }
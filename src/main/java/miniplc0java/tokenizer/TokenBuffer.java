@@ -0,0 +1,287 @@
+package miniplc0java.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import miniplc0java.util.LineWriter;
+import miniplc0java.util.Pos;
+
+/**
+ * 整个文件的 token，按列存在几个平行的基本类型数组里，而不是一个 token 一个对象
+ * <p>
+ * 每个 token 只占 类型(1) + 起点(4) + 终点(4) + 值(8) 共 17 个字节。
+ * 数字字面量的值直接存在 payload 里（编码见 Token.literalValue），
+ * 其他的值存在一个去重的值表里，payload 是下标；
+ * 能随机访问的输入上标识符、字符串、字符的 payload 是 -1，值要用的时候再从原文里取。
+ * 行号列号不存，需要的时候用行表从偏移换算出来；列号从上一次换算的地方接着数，
+ * 所以按顺序取一行里的 token 时每个字符只数一次，很长的一行也不会越来越慢。
+ */
+public class TokenBuffer {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final long LAZY_VALUE = -1;
+
+    byte[] types = new byte[1024];
+    int[] startOffsets = new int[1024];
+    int[] endOffsets = new int[1024];
+    long[] payloads = new long[1024];
+    int size = 0;
+
+    // 去重的值表
+    ArrayList<Object> values = new ArrayList<>();
+    HashMap<Object, Integer> valueIndex = new HashMap<>();
+
+    // 关键字和运算符的值对每种类型都是同一个对象，记下来就不用每次查哈希表
+    Object[] lastValueOfType = new Object[TOKEN_TYPES.length];
+    int[] lastIndexOfType = new int[TOKEN_TYPES.length];
+
+    LineTable lineTable;
+
+    // 能随机访问的输入，用来取值和数列号；流式输入是 null
+    StringIter source;
+
+    // 上一次换算列号的结果，高 32 位是偏移，低 32 位是列号，posOf 从这里接着数；-1 表示没有
+    // 两个值放在一个 long 里，多个线程一起读的时候也不会拿到不配对的偏移和列号
+    private volatile long lastColumn = -1;
+
+    /**
+     * @param it 之后要从这里解析 token，应该指向一行的开头
+     */
+    public TokenBuffer(StringIter it) {
+        this.source = it.isRandomAccess() ? it : null;
+        this.lineTable = new LineTable(it.currentRow(), it.currentOffset() - it.currentCol());
+    }
+
+    /**
+     * 行表已经建好的情况，比如分段解析时拼起来的结果
+     */
+    TokenBuffer(StringIter source, LineTable lineTable) {
+        this.source = source.isRandomAccess() ? source : null;
+        this.lineTable = lineTable;
+    }
+
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+
+    /**
+     * 追加一个 token，返回它的下标
+     * 注意数组可能会被换掉，不能写成 payloads[add(...)] = ...
+     */
+    private int add(TokenType tokenType, long startOffset, long endOffset) {
+        if (endOffset > Integer.MAX_VALUE) {
+            throw new Error("input too large for TokenBuffer");
+        }
+        ensureCapacity(size + 1);
+        types[size] = (byte) tokenType.ordinal();
+        startOffsets[size] = (int) startOffset;
+        endOffsets[size] = (int) endOffset;
+        return size++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            capacity = Math.max(capacity, Math.max(1024, size * 2));
+            types = Arrays.copyOf(types, capacity);
+            startOffsets = Arrays.copyOf(startOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+    }
+
+    /**
+     * 值在值表里的下标，没有的话加进去
+     */
+    private int valueIndexOf(TokenType tokenType, Object value) {
+        int type = tokenType.ordinal();
+        if (lastValueOfType[type] == value) {
+            return lastIndexOfType[type];
+        }
+        int index = valueIndex.computeIfAbsent(value, v -> {
+            values.add(v);
+            return values.size() - 1;
+        });
+        lastValueOfType[type] = value;
+        lastIndexOfType[type] = index;
+        return index;
+    }
+
+    /**
+     * other 里第 i 个 token 的 payload 换成这里的，值表里的值要重新登记
+     */
+    private long payloadFrom(TokenBuffer other, int i) {
+        var tokenType = other.getTokenType(i);
+        long payload = other.payloads[i];
+        if (payload == LAZY_VALUE || tokenType == TokenType.UINT_LITERAL || tokenType == TokenType.DOUBLE_LITERAL) {
+            return payload;
+        }
+        return valueIndexOf(tokenType, other.values.get((int) payload));
+    }
+
+    /**
+     * 添加一个数字字面量，bits 的编码见 Token.literalValue
+     */
+    void addLiteral(TokenType tokenType, long startOffset, long endOffset, long bits) {
+        int i = add(tokenType, startOffset, endOffset);
+        payloads[i] = bits;
+    }
+
+    /**
+     * 添加一个值放在值表里的 token
+     */
+    void addValue(TokenType tokenType, long startOffset, long endOffset, Object value) {
+        int index = valueIndexOf(tokenType, value);
+        int i = add(tokenType, startOffset, endOffset);
+        payloads[i] = index;
+    }
+
+    /**
+     * 添加一个值就是原文的 token，流式输入要趁原文还在窗口里的时候取出来
+     *
+     * @param it 正在读的输入
+     */
+    void addLexeme(TokenType tokenType, long startOffset, long endOffset, StringIter it) {
+        if (source != null) {
+            int i = add(tokenType, startOffset, endOffset);
+            payloads[i] = LAZY_VALUE;
+        } else {
+            addValue(tokenType, startOffset, endOffset, Token.lexemeValue(tokenType, it, startOffset, endOffset));
+        }
+    }
+
+    /**
+     * 把 other 的第 [from, to) 个 token 追加进来，两边必须是同一个输入
+     */
+    void appendRange(TokenBuffer other, int from, int to) {
+        for (int i = from; i < to; i++) {
+            long payload = payloadFrom(other, i);
+            int j = add(other.getTokenType(i), other.startOffsets[i], other.endOffsets[i]);
+            payloads[j] = payload;
+        }
+    }
+
+    /**
+     * 用 replacement 里的全部 token 替换第 [from, to) 个 token，之后的 token 偏移都加上 delta
+     * 给增量解析用，replacement 必须是同一个输入
+     */
+    void splice(int from, int to, TokenBuffer replacement, int delta) {
+        int count = replacement.size;
+        int tail = size - to;
+        ensureCapacity(from + count + tail);
+        System.arraycopy(types, to, types, from + count, tail);
+        System.arraycopy(startOffsets, to, startOffsets, from + count, tail);
+        System.arraycopy(endOffsets, to, endOffsets, from + count, tail);
+        System.arraycopy(payloads, to, payloads, from + count, tail);
+        for (int i = from + count; i < from + count + tail; i++) {
+            startOffsets[i] += delta;
+            endOffsets[i] += delta;
+        }
+        for (int i = 0; i < count; i++) {
+            types[from + i] = replacement.types[i];
+            startOffsets[from + i] = replacement.startOffsets[i];
+            endOffsets[from + i] = replacement.endOffsets[i];
+            payloads[from + i] = payloadFrom(replacement, i);
+        }
+        size = from + count + tail;
+        // 行表和偏移都变了
+        lastColumn = -1;
+    }
+
+    /**
+     * 去掉数组末尾多余的容量，解析完整个文件之后调用
+     */
+    void trimToSize() {
+        types = Arrays.copyOf(types, size);
+        startOffsets = Arrays.copyOf(startOffsets, size);
+        endOffsets = Arrays.copyOf(endOffsets, size);
+        payloads = Arrays.copyOf(payloads, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType getTokenType(int i) {
+        return TOKEN_TYPES[types[i]];
+    }
+
+    public long getStartOffset(int i) {
+        return startOffsets[i];
+    }
+
+    public long getEndOffset(int i) {
+        return endOffsets[i];
+    }
+
+    public Object getValue(int i) {
+        var tokenType = getTokenType(i);
+        if (tokenType == TokenType.UINT_LITERAL || tokenType == TokenType.DOUBLE_LITERAL) {
+            return Token.literalValue(tokenType, payloads[i]);
+        }
+        if (payloads[i] == LAZY_VALUE) {
+            return Token.lexemeValue(tokenType, source, startOffsets[i], endOffsets[i]);
+        }
+        return values.get((int) payloads[i]);
+    }
+
+    /**
+     * 偏移对应的位置，见 Pos.pack
+     */
+    public long posOf(long offset) {
+        int row = lineTable.rowOf(offset);
+        long lineStart = lineTable.lineStart(row);
+        if (source == null) {
+            return Pos.pack(row, (int) (offset - lineStart));
+        }
+        // 上一次换算的偏移在同一行里、在 offset 之前的话，只数中间的字符
+        long last = lastColumn;
+        long lastOffset = last >> 32;
+        int col;
+        if (lastOffset >= lineStart && lastOffset <= offset) {
+            col = (int) last + source.columnBetween(lastOffset, offset);
+        } else {
+            col = source.columnBetween(lineStart, offset);
+        }
+        lastColumn = offset << 32 | col;
+        return Pos.pack(row, col);
+    }
+
+    public long getStartPosPacked(int i) {
+        return posOf(startOffsets[i]);
+    }
+
+    public Pos getStartPos(int i) {
+        return Pos.unpack(getStartPosPacked(i));
+    }
+
+    /**
+     * 按 -t 的格式一行一个写到 out 里，最后的 EOF 不写，不创建 Token 对象
+     * token 是按顺序取的，posOf 每次只数和上一个 token 之间的字符，一行再长也是线性的
+     */
+    public void writeTo(LineWriter out) {
+        for (int i = 0; i < size - 1; i++) {
+            var tokenType = getTokenType(i);
+            Token.writePrefix(out, posOf(startOffsets[i]), tokenType);
+            if (tokenType == TokenType.UINT_LITERAL) {
+                out.append((int) payloads[i]);
+            } else {
+                out.append(getValue(i));
+            }
+            out.newLine();
+        }
+    }
+
+    /**
+     * 把第 i 个 token 还原成 Token 对象
+     */
+    public Token get(int i) {
+        var tokenType = getTokenType(i);
+        long startPos = posOf(startOffsets[i]);
+        long endPos = posOf(endOffsets[i]);
+        if (payloads[i] == LAZY_VALUE && tokenType != TokenType.UINT_LITERAL
+                && tokenType != TokenType.DOUBLE_LITERAL) {
+            return new Token(tokenType, source, startOffsets[i], endOffsets[i], startPos, endPos);
+        }
+        return new Token(tokenType, getValue(i), startOffsets[i], endOffsets[i], startPos, endPos);
+    }
+}
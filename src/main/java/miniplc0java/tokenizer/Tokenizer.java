@@ -2,12 +2,89 @@ package miniplc0java.tokenizer;
 
 import miniplc0java.error.TokenizeError;
 import miniplc0java.error.ErrorCode;
+import miniplc0java.util.LineWriter;
 import miniplc0java.util.Pos;
 
 public class Tokenizer {
 
+    // ASCII 字符的分类表，非 ASCII 字符再退回 Character 的 Unicode 判断
+    private static final byte DIGIT = 1;
+    private static final byte IDENT_START = 2;
+    private static final byte IDENT_PART = 4;
+    private static final byte SPACE = 8;
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    static {
+        // 直接用 Character 的判断生成，保证和原来的行为一致
+        for (char c = 0; c < CHAR_CLASS.length; c++) {
+            byte cls = 0;
+            if (Character.isDigit(c)) {
+                cls |= DIGIT | IDENT_PART;
+            }
+            if (Character.isAlphabetic(c) || c == '_') {
+                cls |= IDENT_START | IDENT_PART;
+            }
+            if (Character.isWhitespace(c)) {
+                cls |= SPACE;
+            }
+            CHAR_CLASS[c] = cls;
+        }
+    }
+
+    // 关键字的完美哈希表，由所有 *_KW 生成，槽位由首字符、尾字符和长度决定
+    private static final int KEYWORD_SLOTS = 32;
+    private static final TokenType[] KEYWORD_TYPES = new TokenType[KEYWORD_SLOTS];
+    private static final String[] KEYWORD_TEXTS = new String[KEYWORD_SLOTS];
+
+    static {
+        for (TokenType tokenType : TokenType.values()) {
+            var name = tokenType.name();
+            if (!name.endsWith("_KW")) {
+                continue;
+            }
+            var text = name.substring(0, name.length() - 3).toLowerCase();
+            int slot = keywordSlot(text.charAt(0), text.charAt(text.length() - 1), text.length());
+            if (KEYWORD_TYPES[slot] != null) {
+                // 加了新关键字之后撞了，需要换一个哈希函数
+                throw new Error("keyword hash collision: " + text + " and " + KEYWORD_TEXTS[slot]);
+            }
+            KEYWORD_TYPES[slot] = tokenType;
+            KEYWORD_TEXTS[slot] = text;
+        }
+    }
+
+    private static int keywordSlot(char first, char last, int length) {
+        return (first * 10 + last + length) & (KEYWORD_SLOTS - 1);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
+    private static boolean isIdentStart(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & IDENT_START) != 0 : Character.isAlphabetic(c);
+    }
+
+    private static boolean isIdentPart(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & IDENT_PART) != 0 : Character.isAlphabetic(c) || Character.isDigit(c);
+    }
+
+    private static boolean isSpace(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & SPACE) != 0 : Character.isWhitespace(c);
+    }
+
     private StringIter it;
 
+    // 当前 token 的起点
+    private long tokenStart;
+    private long tokenStartPos;
+
+    // 当前 token 的值，由各个 lexXxx 设置，三选一：
+    // tokenValue 不为空时就是它；tokenIsLexeme 时值是原文；否则是数字字面量，存在 tokenBits 里
+    private Object tokenValue;
+    private long tokenBits;
+    private boolean tokenIsLexeme;
+
     public Tokenizer(StringIter it) {
         this.it = it;
     }
@@ -21,19 +98,118 @@ public class Tokenizer {
      * @throws TokenizeError 如果解析有异常则抛出
      */
     public Token nextToken() throws TokenizeError {
-        it.readAll();
+        var tokenType = lexToken(Long.MAX_VALUE);
+        long endPos = it.currentPosPacked();
+        if (tokenIsLexeme) {
+            // 能随机访问的输入上值等到用的时候再取，否则窗口会往前滑，要当场取出来
+            var token = new Token(tokenType, it, tokenStart, it.currentOffset(), tokenStartPos, endPos);
+            if (!it.isRandomAccess()) {
+                token.getValue();
+            }
+            return token;
+        }
+        var value = tokenValue != null ? tokenValue : Token.literalValue(tokenType, tokenBits);
+        return new Token(tokenType, value, tokenStart, it.currentOffset(), tokenStartPos, endPos);
+    }
+
+    /**
+     * 把剩下的输入全部解析完，放进一个 TokenBuffer 里，最后一个是 EOF
+     * 中间不会创建 Token 对象
+     *
+     * @throws TokenizeError 如果解析有异常则抛出
+     */
+    public TokenBuffer tokenizeAll() throws TokenizeError {
+        var buffer = new TokenBuffer(it);
+        it.recordLines(buffer.getLineTable());
+        try {
+            tokenizeInto(buffer, Long.MAX_VALUE);
+        } finally {
+            it.recordLines(null);
+        }
+        buffer.trimToSize();
+        return buffer;
+    }
 
-        // 跳过之前的所有空白字符
-        skipSpaceCharacters();
+    /**
+     * 把起点在 limit 之前的 token 都追加到 buffer 里，最后追加一个 EOF
+     * 到了 limit 就停下，EOF 的起点在 limit 之后第一个 token 的位置，用于分段解析
+     */
+    void tokenizeInto(TokenBuffer buffer, long limit) throws TokenizeError {
+        TokenType tokenType;
+        do {
+            tokenType = lexToken(limit);
+            appendTo(buffer, tokenType);
+        } while (tokenType != TokenType.EOF);
+    }
 
-        if (it.isEOF()) {
-            return null;
+    /**
+     * 把剩下的 token 按 -t 的格式一行一个写到 out 里，最后的 EOF 不写
+     * 边解析边写，中间不会创建 Token 对象
+     *
+     * @throws TokenizeError 如果解析有异常则抛出，之前的 token 可能已经写出去了
+     */
+    public void writeAll(LineWriter out) throws TokenizeError {
+        while (true) {
+            var tokenType = lexToken(Long.MAX_VALUE);
+            if (tokenType == TokenType.EOF) {
+                return;
+            }
+            Token.writePrefix(out, tokenStartPos, tokenType);
+            if (tokenIsLexeme) {
+                out.append(Token.lexemeValue(tokenType, it, tokenStart, it.currentOffset()));
+            } else if (tokenValue != null) {
+                out.append(tokenValue);
+            } else if (tokenType == TokenType.UINT_LITERAL) {
+                out.append((int) tokenBits);
+            } else {
+                out.append(Token.literalValue(tokenType, tokenBits));
+            }
+            out.newLine();
+        }
+    }
+
+    /**
+     * 上一次 lexToken 得到的 token 的起点
+     */
+    long lastTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * 把上一次 lexToken 得到的 token 追加到 buffer 里
+     */
+    void appendTo(TokenBuffer buffer, TokenType tokenType) {
+        long end = it.currentOffset();
+        if (tokenIsLexeme) {
+            buffer.addLexeme(tokenType, tokenStart, end, it);
+        } else if (tokenValue != null) {
+            buffer.addValue(tokenType, tokenStart, end, tokenValue);
+        } else {
+            buffer.addLiteral(tokenType, tokenStart, end, tokenBits);
+        }
+    }
+
+    /**
+     * 解析一个 token，起点记在 tokenStart 里，值记在 tokenValue 等字段里
+     * 起点在 limit 或之后的当作 EOF
+     */
+    TokenType lexToken(long limit) throws TokenizeError {
+        // 跳过之前的所有空白字符和注释，上一个 token 的值已经取走了，不用再留在窗口里
+        it.unmark();
+        skipSpaceAndComments();
+
+        tokenStart = it.currentOffset();
+        tokenStartPos = it.currentPosPacked();
+        it.mark();
+
+        if (tokenStart >= limit || it.isEOF()) {
+            return withValue(TokenType.EOF, "");
         }
 
         char peek = it.peekChar();
-        if (Character.isDigit(peek)) {
+        if (isDigit(peek)) {
             return lexUIntOrDouble();
-        } else if (Character.isAlphabetic(peek) || peek == '_') {
+        } else if (isIdentStart(peek)) {
             return lexIdentOrKeyword();
         } else if (peek == '\''){
             return lexChar();
@@ -44,233 +220,242 @@ public class Tokenizer {
         }
     }
 
-    private Token lexUIntOrDouble() throws TokenizeError {
-        String token = "";
-        boolean isDouble = false;
-        Pos startPos = it.currentPos();
+    private TokenType withValue(TokenType tokenType, Object value) {
+        tokenValue = value;
+        tokenIsLexeme = false;
+        return tokenType;
+    }
+
+    /**
+     * 数字字面量，值的编码见 Token.literalValue
+     */
+    private TokenType withBits(TokenType tokenType, long bits) {
+        tokenValue = null;
+        tokenBits = bits;
+        tokenIsLexeme = false;
+        return tokenType;
+    }
+
+    /**
+     * 值就是原文的 token（标识符、字符串、字符）
+     */
+    private TokenType withLexeme(TokenType tokenType) {
+        tokenValue = null;
+        tokenIsLexeme = true;
+        return tokenType;
+    }
+
+    private TokenType lexUIntOrDouble() throws TokenizeError {
+        // 整数边读边算值，不用先拼出字符串
+        // 超出范围先记下来，后面跟着 . 的话是浮点数，整数部分多大都可以
+        long value = 0;
+        boolean overflow = false;
         char next = it.peekChar();
-        while(Character.isDigit(next)){
-            next = it.nextChar();
-            token += next;
+        while(isDigit(next)){
+            if(!overflow){
+                value = value * 10 + (next < 128 ? next - '0' : Character.digit(next, 10));
+                overflow = value > 0xFFFFFFFFL;
+            }
+            it.nextChar();
             next = it.peekChar();
         }
-        if(next == '.'){
-            next = it.peekChar();
-            if(!Character.isDigit(next)){
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+        if(next != '.'){
+            if(overflow){
+                throw new TokenizeError(ErrorCode.IntegerOverflow, Pos.unpack(tokenStartPos));
             }
-            isDouble = true;
-            while(Character.isDigit(next)){
-                next = it.nextChar();
-                token += next;
-                next = it.peekChar();
+            return withBits(TokenType.UINT_LITERAL, value);
+        }
+        it.nextChar();
+        if(!isDigit(it.peekChar())){
+            throw new TokenizeError(ErrorCode.InvalidInput, it.currentPos());
+        }
+        skipDigits();
+        next = it.peekChar();
+        if(next == 'e' || next == 'E'){
+            it.nextChar();
+            next = it.peekChar();
+            if(next == '+' || next == '-'){
+                it.nextChar();
             }
-            if(next == 'e' || next == 'E'){
-                next = it.nextChar();
-                token += next;
-                next = it.peekChar();
-                if(next == '+' || next == '-'){
-                    next = it.nextChar();
-                    token += next;
-                    next = it.peekChar();
-                }
-                if(Character.isDigit(next)){
-                    next = it.nextChar();
-                    token += next;
-                    next = it.peekChar();
-                    while (Character.isDigit(next)){
-                        next = it.nextChar();
-                        token += next;
-                        next = it.peekChar();
-                    }
-                }
-                else {
-                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
-                }
+            if(!isDigit(it.peekChar())){
+                throw new TokenizeError(ErrorCode.InvalidInput, it.currentPos());
             }
+            skipDigits();
         }
-        Pos endPos = it.currentPos();
-        if(isDouble){
-            double value = Double.parseDouble(token);
-            return new Token(TokenType.DOUBLE_LITERAL, value, startPos, endPos);
-        }
-        else {
-            int value = Integer.parseUnsignedInt(token);
-            return new Token(TokenType.UINT_LITERAL, value, startPos, endPos);
+        // 浮点数比较少见，直接切出原文交给 parseDouble
+        double doubleValue = Double.parseDouble(it.slice(tokenStart, it.currentOffset()));
+        return withBits(TokenType.DOUBLE_LITERAL, Double.doubleToRawLongBits(doubleValue));
+    }
+
+    private void skipDigits() {
+        while(isDigit(it.peekChar())){
+            it.nextChar();
         }
     }
 
-    private Token lexIdentOrKeyword() throws TokenizeError {
-        String token = "";
-        Pos startPos = it.currentPos();
+    private TokenType lexIdentOrKeyword() throws TokenizeError {
+        char first = it.nextChar();
+        char last = first;
+        int length = 1;
         char next = it.peekChar();
-        while(Character.isAlphabetic(next) || next == '_' || Character.isDigit(next)){
-            next = it.nextChar();
-            token += next;
+        while(isIdentPart(next)){
+            last = it.nextChar();
+            length++;
             next = it.peekChar();
         }
-        Pos endPos = it.currentPos();
-        //是不是关键字，前十个里面
-        TokenType tokenType[] = TokenType.values();
-        for(int i = 0; i < 10; i++) {
-            if (tokenType[i].toString().toLowerCase().equals(token)) {
-                return new Token(tokenType[i], token, startPos, endPos);
-            }
+        //是不是关键字，查一下表，直接和原文比较
+        int slot = keywordSlot(first, last, length);
+        var keyword = KEYWORD_TEXTS[slot];
+        if (keyword != null && it.regionMatches(tokenStart, it.currentOffset(), keyword)) {
+            return withValue(KEYWORD_TYPES[slot], keyword);
         }
         //不是关键字，是标识符
-        return new Token(TokenType.IDENT,token,startPos,endPos);
+        return withLexeme(TokenType.IDENT);
     }
 
-    private boolean isEscapeSequence(String str){
-        if(str.equals("\\\\") || str.equals("\\\'") || str.equals("\\\"") || str.equals("\\\n") || str.equals("\\\r") || str.equals("\\\t")){
-            return true;
+    /**
+     * 读一个转义序列 \\ \' \" \n \r \t，指针在反斜杠上
+     */
+    private void lexEscapeSequence() throws TokenizeError {
+        it.nextChar();
+        switch (it.peekChar()){
+            case '\\':
+            case '\'':
+            case '\"':
+            case 'n':
+            case 'r':
+            case 't':
+                it.nextChar();
+                break;
+            default:
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
         }
-        return false;
     }
 
-    private Token lexString() throws TokenizeError {
-        String token = "";
-        Pos startPos = it.currentPos();
-        char next = it.nextChar();
+    private TokenType lexString() throws TokenizeError {
+        it.nextChar();
         while (true){
-            next = it.peekChar();
+            if(it.isEOF()){
+                throw new TokenizeError(ErrorCode.EOF, it.currentPos());
+            }
+            char next = it.peekChar();
             if(next == '"'){
-                next = it.nextChar();
+                it.nextChar();
                 break;
             }
             if(next == '\\'){//偷看到的下一个是反斜杠，考虑转义字符
-                token += next;
-                next = it.nextChar();
-                next = it.peekChar();
-                switch (next){
-                    case '\\':
-                    case '\'':
-                    case '\"':
-                    case '\n':
-                    case '\r':
-                    case '\t':
-                        token += next;
-                        next = it.nextChar();
-                        break;
-                    default:
-                        throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
-                }
+                lexEscapeSequence();
             }
             else {
-                token += next;
-                next = it.nextChar();
+                it.nextChar();
             }
         }
-        Pos endPos = it.currentPos();
-
-        return new Token(TokenType.IDENT,token,startPos,endPos);
+        return withLexeme(TokenType.STRING_LITERAL);
     }
 
-    private Token lexChar() throws TokenizeError {
-        String token = "";
-        Pos startPos = it.currentPos();
-        char next = it.nextChar();
-        next = it.peekChar();
+    private TokenType lexChar() throws TokenizeError {
+        it.nextChar();
+        char next = it.peekChar();
         if(next == '\\'){
-            token += next;//token是反斜杠
-            next = it.nextChar();
-            next = it.peekChar();
-            token += next;//token是反斜杠加一个字符，判断是不是转义字符
-            if(isEscapeSequence(token)){//是转义字符
-                next = it.nextChar();
-                next = it.peekChar();//next现在是后面的一个‘
-            }else {
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
-            }
+            lexEscapeSequence();
         }else {//不会是转义字符，应该是普通字符
-            if(next == '\\' || next == '\''){
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+            if(next == '\'' || next == '\n' || next == '\r' || it.isEOF()){
+                throw new TokenizeError(ErrorCode.InvalidInput, it.currentPos());
             }
-            token += next;
-            next = it.nextChar();
-            next = it.peekChar();//next现在是后面的一个‘
+            it.nextChar();
         }
-        if(next == '\''){
-            next = it.nextChar();
-            Pos endPos = it.currentPos();
-            return new Token(TokenType.CHAR_LITERAL,token,startPos,endPos);
+        if(it.peekChar() == '\''){
+            it.nextChar();
+            return withLexeme(TokenType.CHAR_LITERAL);
         }else {
-            throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+            throw new TokenizeError(ErrorCode.InvalidInput, it.currentPos());
         }
     }
 
-    private Token lexOperatorOrUnknown() throws TokenizeError {
+    private TokenType lexOperatorOrUnknown() throws TokenizeError {
         switch (it.nextChar()) {
             case '+':
-                return new Token(TokenType.PLUS, '+', it.previousPos(), it.currentPos());
+                return withValue(TokenType.PLUS, '+');
             case '-':
                 char op5 = it.peekChar();
                 if(op5 == '>'){
                     op5 = it.nextChar();
-                    return new Token(TokenType.ARROW, "->", it.previousPos(), it.currentPos());
+                    return withValue(TokenType.ARROW, "->");
                 }
-                return new Token(TokenType.MINUS, '-', it.previousPos(), it.currentPos());
+                return withValue(TokenType.MINUS, '-');
             case '*':
-                return new Token(TokenType.MUL, '*', it.previousPos(), it.currentPos());
+                return withValue(TokenType.MUL, '*');
             case '/':
-                char op6 = it.peekChar();
-                //出现注释的情况
-                if(op6 == '/'){
-                    op6 = it.nextChar();
-                    while (it.nextChar() != '\n');
-                }
-                return new Token(TokenType.DIV, '/', it.previousPos(), it.currentPos());
+                // 注释已经在 skipSpaceAndComments 里跳过了
+                return withValue(TokenType.DIV, '/');
             case '(':
-                return new Token(TokenType.L_PAREN, '(', it.previousPos(), it.currentPos());
+                return withValue(TokenType.L_PAREN, '(');
             case ')':
-                return new Token(TokenType.R_PAREN, ')', it.previousPos(), it.currentPos());
+                return withValue(TokenType.R_PAREN, ')');
             case '{':
-                return new Token(TokenType.L_BRACE, '{', it.previousPos(), it.currentPos());
+                return withValue(TokenType.L_BRACE, '{');
             case '}':
-                return new Token(TokenType.R_BRACE, '}', it.previousPos(), it.currentPos());
+                return withValue(TokenType.R_BRACE, '}');
             case ',':
-                return new Token(TokenType.COMMA, ',', it.previousPos(), it.currentPos());
+                return withValue(TokenType.COMMA, ',');
             case ':':
-                return new Token(TokenType.COLON, ':', it.previousPos(), it.currentPos());
+                return withValue(TokenType.COLON, ':');
             case ';':
-                return new Token(TokenType.SEMICOLON, ';', it.previousPos(), it.currentPos());
+                return withValue(TokenType.SEMICOLON, ';');
             case '=':
                 char op1 = it.peekChar();
                 if(op1 == '='){
                     op1 = it.nextChar();
-                    return new Token(TokenType.EQ, "==", it.previousPos(), it.currentPos());
+                    return withValue(TokenType.EQ, "==");
                 }
-                return new Token(TokenType.ASSIGN, '=', it.previousPos(), it.currentPos());
+                return withValue(TokenType.ASSIGN, '=');
             case '!':
                 char op2 = it.peekChar();
                 if(op2 == '='){
                     op2 = it.nextChar();
-                    return new Token(TokenType.NEQ, "!=", it.previousPos(), it.currentPos());
+                    return withValue(TokenType.NEQ, "!=");
                 }
                 throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
             case '>':
                 char op3 = it.peekChar();
                 if(op3 == '='){
                     op3 = it.nextChar();
-                    return new Token(TokenType.GE, ">=", it.previousPos(), it.currentPos());
+                    return withValue(TokenType.GE, ">=");
                 }
-                return new Token(TokenType.GT, '>', it.previousPos(), it.currentPos());
+                return withValue(TokenType.GT, '>');
             case '<':
                 char op4 = it.peekChar();
                 if(op4 == '='){
                     op4 = it.nextChar();
-                    return new Token(TokenType.LE, "<=", it.previousPos(), it.currentPos());
+                    return withValue(TokenType.LE, "<=");
                 }
-                return new Token(TokenType.LT, '<', it.previousPos(), it.currentPos());
+                return withValue(TokenType.LT, '<');
             default:
                 // 不认识这个输入，摸了
                 throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
         }
     }
 
-    private void skipSpaceCharacters() {
-        while (!it.isEOF() && Character.isWhitespace(it.peekChar())) {
-            it.nextChar();
+    private void skipSpaceAndComments() {
+        while (true) {
+            char peek = it.peekChar();
+            if (peek == 0 && it.isEOF()) {
+                return;
+            }
+            if (isSpace(peek)) {
+                it.nextChar();
+            } else if (peek == '/') {
+                it.nextChar();
+                if (it.peekChar() != '/') {
+                    // 只是个除号
+                    it.unreadLast();
+                    return;
+                }
+                //出现注释的情况，跳到行尾
+                while (!it.isEOF() && it.nextChar() != '\n');
+            } else {
+                return;
+            }
         }
     }
 }
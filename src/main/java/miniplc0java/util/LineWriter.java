@@ -0,0 +1,141 @@
+package miniplc0java.util;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * -t 和 -l 的文本输出：字符直接拼进一个大的 char 数组，满了才交给下面按 UTF-8 编码写出去
+ * <p>
+ * 和 PrintStream.println(x.toString()) 比，每行不用创建 String，也不会每行都写一次底层的流。
+ * 整数直接按位写成字符。要 flush 之后才能保证写出去了；写出错时抛 UncheckedIOException。
+ */
+public class LineWriter implements Flushable {
+    private static final char[] NEWLINE = System.lineSeparator().toCharArray();
+    private static final int DEFAULT_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final char[] buffer;
+    private int count = 0;
+
+    public LineWriter(OutputStream out) {
+        this(out, DEFAULT_SIZE);
+    }
+
+    public LineWriter(OutputStream out, int size) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        // 至少放得下一个整数和一个换行
+        this.buffer = new char[Math.max(size, 16)];
+    }
+
+    private void ensure(int n) {
+        if (count + n > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    public LineWriter append(char c) {
+        ensure(1);
+        buffer[count++] = c;
+        return this;
+    }
+
+    public LineWriter append(String s) {
+        int length = s.length();
+        if (length > buffer.length) {
+            flushBuffer();
+            write(s);
+            return this;
+        }
+        ensure(length);
+        s.getChars(0, length, buffer, count);
+        count += length;
+        return this;
+    }
+
+    public LineWriter append(int value) {
+        // 最长是 "-2147483648"，11 个字符
+        ensure(11);
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                return append("-2147483648");
+            }
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int end = count + stringSize(value);
+        int pos = end;
+        do {
+            buffer[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        count = end;
+        return this;
+    }
+
+    /**
+     * 非负整数有几位
+     */
+    private static int stringSize(int value) {
+        int size = 1;
+        for (long limit = 10; value >= limit && size < 10; limit *= 10) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 常见的值不经过 toString，其他的退回 String.valueOf
+     */
+    public LineWriter append(Object value) {
+        if (value instanceof Integer) {
+            return append((int) (Integer) value);
+        }
+        if (value instanceof Character) {
+            return append((char) (Character) value);
+        }
+        return append(String.valueOf(value));
+    }
+
+    public LineWriter newLine() {
+        ensure(NEWLINE.length);
+        for (char c : NEWLINE) {
+            buffer[count++] = c;
+        }
+        return this;
+    }
+
+    private void write(String s) {
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * 写出去，底层的流也 flush，但不关闭
+     */
+    @Override
+    public void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
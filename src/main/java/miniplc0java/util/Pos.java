@@ -9,6 +9,29 @@ public class Pos {
     public int row;
     public int col;
 
+    // 热路径上的位置都用压缩成一个 long 的形式传，高 32 位是行号，低 32 位是列号
+    // 只有报错或者打印的时候才需要真的创建 Pos
+
+    public static long pack(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    public static int packedRow(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int packedCol(long packed) {
+        return (int) packed;
+    }
+
+    public static Pos unpack(long packed) {
+        return new Pos(packedRow(packed), packedCol(packed));
+    }
+
+    public long pack() {
+        return pack(row, col);
+    }
+
     public Pos nextCol() {
         return new Pos(row, col + 1);
     }
@@ -17,6 +40,21 @@ public class Pos {
         return new Pos(row + 1, 0);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        Pos pos = (Pos) o;
+        return row == pos.row && col == pos.col;
+    }
+
+    @Override
+    public int hashCode() {
+        return row * 31 + col;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder().append("Pos(row: ").append(row).append(", col: ").append(col).append(")").toString();
@@ -0,0 +1,480 @@
+package miniplc0java.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把加载好的 MiniVm 程序翻译成 JVM 字节码，用单独的 ClassLoader 加载，交给 HotSpot 去执行和 JIT
+ * <p>
+ * 程序里没有跳转，每条指令执行时栈有多深在翻译时就知道，所以栈槽 s 直接对应局部变量 2 + s。
+ * 程序切成一段段静态方法，每段不超过 HotSpot 肯编译的大小（HugeMethodLimit，8000 字节）。
+ * 段之间通过 stack 数组传递栈的内容：一段里没写过的栈槽从数组里读，写过的在段尾写回数组。
+ * 常量池和方法数有上限，方法多了就换一个类，每个类实现 CompiledProgram，按顺序执行。
+ * <p>
+ * 运行时一定会出错的指令（从空栈弹出、LOD/STO 越界、ILL）在翻译时就能发现，
+ * 翻译成抛出和解释执行时一样的异常，后面的指令不再翻译。
+ */
+final class BytecodeCompiler {
+    // 超过这个大小就结束当前方法，留出写回栈槽和 return 的余量
+    private static final int CHUNK_LIMIT = 7000;
+    // 写回一个栈槽最多要多少字节
+    private static final int SPILL_SIZE = 9;
+    // 常量池超过这么多项就换一个类
+    private static final int POOL_LIMIT = 55000;
+    private static final int CHUNKS_PER_CLASS = 2000;
+    // 局部变量的编号不能超过 65535
+    static final int MAX_SLOTS = 65535 - 2;
+
+    private static final String CHUNK_DESCRIPTOR = "([ILjava/util/function/IntConsumer;)V";
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    /**
+     * 只用来加载生成的类，程序不用了就可以和这些类一起被回收
+     */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * 写 class 文件用的字节缓冲，大端
+     */
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes() {
+            super(256);
+        }
+
+        void u1(int v) {
+            write(v);
+        }
+
+        void u2(int v) {
+            write(v >>> 8);
+            write(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+    }
+
+    /**
+     * 常量池，相同的项只放一次
+     */
+    private static class ConstantPool {
+        final Bytes bytes = new Bytes();
+        final HashMap<String, Integer> entries = new HashMap<>();
+        int count = 1;
+
+        private Integer find(String key) {
+            return entries.get(key);
+        }
+
+        private int add(String key) {
+            entries.put(key, count);
+            return count++;
+        }
+
+        int utf8(String s) {
+            var index = find("U" + s);
+            if (index != null) {
+                return index;
+            }
+            var data = s.getBytes(StandardCharsets.UTF_8);
+            bytes.u1(1);
+            bytes.u2(data.length);
+            bytes.writeBytes(data);
+            return add("U" + s);
+        }
+
+        int cls(String name) {
+            var index = find("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(name);
+            bytes.u1(7);
+            bytes.u2(nameIndex);
+            return add("C" + name);
+        }
+
+        int string(String s) {
+            var index = find("S" + s);
+            if (index != null) {
+                return index;
+            }
+            int utf8Index = utf8(s);
+            bytes.u1(8);
+            bytes.u2(utf8Index);
+            return add("S" + s);
+        }
+
+        int integer(int v) {
+            var index = find("I" + v);
+            if (index != null) {
+                return index;
+            }
+            bytes.u1(3);
+            bytes.u4(v);
+            return add("I" + v);
+        }
+
+        int method(String owner, String name, String descriptor, boolean isInterface) {
+            var key = "M" + owner + "." + name + descriptor;
+            var index = find(key);
+            if (index != null) {
+                return index;
+            }
+            int classIndex = cls(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            bytes.u1(12);
+            bytes.u2(nameIndex);
+            bytes.u2(descriptorIndex);
+            int nameAndType = count++;
+            bytes.u1(isInterface ? 11 : 10);
+            bytes.u2(classIndex);
+            bytes.u2(nameAndType);
+            return add(key);
+        }
+    }
+
+    private final int[] opcodes;
+    private final int[] operands;
+    private final Loader loader = new Loader();
+    private final List<CompiledProgram> programs = new ArrayList<>();
+
+    // 正在生成的类
+    private String className;
+    private ConstantPool pool;
+    private Bytes methods;
+    private int methodCount;
+    private int chunkCount;
+
+    // 正在生成的方法
+    private Bytes code;
+    // 栈槽在这一段里写过没有，写过的在局部变量里
+    private final boolean[] defined;
+    private final List<Integer> definedSlots = new ArrayList<>();
+    private int maxSlot;
+
+    // 当前指令执行前栈的深度
+    private int depth;
+
+    private BytecodeCompiler(int[] opcodes, int[] operands, int base, int maxDepth) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.defined = new boolean[base + maxDepth];
+        this.depth = base;
+    }
+
+    /**
+     * 翻译一个加载好的程序，按顺序执行返回的每一个 CompiledProgram 就是执行整个程序
+     *
+     * @param base     开始执行时栈的深度
+     * @param maxDepth 执行过程中栈最多比开始时深多少
+     * @throws IllegalArgumentException 栈太深，局部变量不够用
+     */
+    static List<CompiledProgram> compile(int[] opcodes, int[] operands, int base, int maxDepth) {
+        if (base + maxDepth > MAX_SLOTS) {
+            throw new IllegalArgumentException("Stack too deep to compile: " + (base + maxDepth));
+        }
+        var compiler = new BytecodeCompiler(opcodes, operands, base, maxDepth);
+        compiler.translate();
+        return compiler.programs;
+    }
+
+    private void translate() {
+        startClass();
+        startChunk();
+        boolean returns = true;
+        for (int ip = 0; ip < opcodes.length; ip++) {
+            if (code.size() + SPILL_SIZE * definedSlots.size() > CHUNK_LIMIT || pool.count > POOL_LIMIT) {
+                finishChunk(true);
+                if (pool.count > POOL_LIMIT || chunkCount >= CHUNKS_PER_CLASS) {
+                    finishClass();
+                    startClass();
+                }
+                startChunk();
+            }
+            if (!translate(ip)) {
+                returns = false;
+                break;
+            }
+        }
+        finishChunk(returns);
+        finishClass();
+    }
+
+    /**
+     * 翻译一条指令
+     *
+     * @return 这条指令一定会抛异常时为 false，后面的就不用翻译了
+     */
+    private boolean translate(int ip) {
+        int x = operands[ip];
+        switch (opcodes[ip]) {
+            case MiniVm.LIT:
+                pushInt(x);
+                store(depth++);
+                return true;
+            case MiniVm.LOD:
+                if (x < 0 || x >= depth) {
+                    return outOfBounds(x, depth);
+                }
+                load(x);
+                store(depth++);
+                return true;
+            case MiniVm.STO:
+                if (depth < 1) {
+                    return underflow(ip);
+                }
+                depth--;
+                if (x < 0 || x >= depth) {
+                    return outOfBounds(x, depth);
+                }
+                load(depth);
+                store(x);
+                return true;
+            case MiniVm.ADD:
+                return binary(ip, 0x60);
+            case MiniVm.SUB:
+                return binary(ip, 0x64);
+            case MiniVm.MUL:
+                return binary(ip, 0x68);
+            case MiniVm.DIV:
+                return binary(ip, 0x6c);
+            case MiniVm.WRT:
+                if (depth < 1) {
+                    return underflow(ip);
+                }
+                // out.accept(栈顶)
+                code.u1(0x2b);
+                load(--depth);
+                code.u1(0xb9);
+                code.u2(pool.method("java/util/function/IntConsumer", "accept", "(I)V", true));
+                code.u1(2);
+                code.u1(0);
+                return true;
+            default:
+                return fail("java/lang/Error", "Illegal instruction");
+        }
+    }
+
+    private boolean binary(int ip, int opcode) {
+        if (depth < 2) {
+            return underflow(ip);
+        }
+        load(depth - 2);
+        load(depth - 1);
+        code.u1(opcode);
+        store(depth - 2);
+        depth--;
+        return true;
+    }
+
+    private boolean underflow(int ip) {
+        return fail("java/lang/IndexOutOfBoundsException", "Stack underflow at instruction " + ip);
+    }
+
+    private boolean outOfBounds(int index, int length) {
+        // 和 Objects.checkIndex 的消息一样
+        return fail("java/lang/IndexOutOfBoundsException",
+                String.format("Index %d out of bounds for length %d", index, length));
+    }
+
+    /**
+     * throw new exception(message)
+     */
+    private boolean fail(String exception, String message) {
+        code.u1(0xbb);
+        code.u2(pool.cls(exception));
+        code.u1(0x59);
+        ldc(pool.string(message));
+        code.u1(0xb7);
+        code.u2(pool.method(exception, "<init>", "(Ljava/lang/String;)V", false));
+        code.u1(0xbf);
+        return false;
+    }
+
+    private void pushInt(int v) {
+        if (v >= -1 && v <= 5) {
+            // iconst_<v>
+            code.u1(0x03 + v);
+        } else if (v == (byte) v) {
+            code.u1(0x10);
+            code.u1(v);
+        } else if (v == (short) v) {
+            code.u1(0x11);
+            code.u2(v);
+        } else {
+            ldc(pool.integer(v));
+        }
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            code.u1(0x12);
+            code.u1(index);
+        } else {
+            code.u1(0x13);
+            code.u2(index);
+        }
+    }
+
+    /**
+     * iload 或者 istore 局部变量 local
+     */
+    private void local(int shortOpcode, int opcode, int local) {
+        if (local < 4) {
+            code.u1(shortOpcode + local);
+        } else if (local < 256) {
+            code.u1(opcode);
+            code.u1(local);
+        } else {
+            code.u1(0xc4);
+            code.u1(opcode);
+            code.u2(local);
+        }
+    }
+
+    /**
+     * 把栈槽 slot 的值放到 JVM 的操作数栈上
+     */
+    private void load(int slot) {
+        if (defined[slot]) {
+            local(0x1a, 0x15, 2 + slot);
+        } else {
+            // stack[slot]
+            code.u1(0x2a);
+            pushInt(slot);
+            code.u1(0x2e);
+        }
+    }
+
+    /**
+     * 把 JVM 操作数栈顶的值存进栈槽 slot
+     */
+    private void store(int slot) {
+        local(0x3b, 0x36, 2 + slot);
+        if (!defined[slot]) {
+            defined[slot] = true;
+            definedSlots.add(slot);
+            maxSlot = Math.max(maxSlot, slot);
+        }
+    }
+
+    private void startClass() {
+        className = "miniplc0java/vm/GeneratedProgram" + classCount.incrementAndGet();
+        pool = new ConstantPool();
+        methods = new Bytes();
+        methodCount = 0;
+        chunkCount = 0;
+    }
+
+    private void startChunk() {
+        code = new Bytes();
+        maxSlot = -1;
+    }
+
+    /**
+     * @param returns 这一段正常结束，要把写过的还活着的栈槽写回数组
+     */
+    private void finishChunk(boolean returns) {
+        if (returns) {
+            for (int slot : definedSlots) {
+                if (slot < depth) {
+                    // stack[slot] = 局部变量
+                    code.u1(0x2a);
+                    pushInt(slot);
+                    local(0x1a, 0x15, 2 + slot);
+                    code.u1(0x4f);
+                }
+            }
+            code.u1(0xb1);
+        }
+        for (int slot : definedSlots) {
+            defined[slot] = false;
+        }
+        definedSlots.clear();
+        // private static void c<n>(int[] stack, IntConsumer out)
+        addMethod(0x000a, "c" + chunkCount++, CHUNK_DESCRIPTOR, 4, 2 + maxSlot + 1, code);
+    }
+
+    private void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals, Bytes body) {
+        methods.u2(access);
+        methods.u2(pool.utf8(name));
+        methods.u2(pool.utf8(descriptor));
+        methods.u2(1);
+        methods.u2(pool.utf8("Code"));
+        methods.u4(12 + body.size());
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(body.size());
+        methods.writeBytes(body.toByteArray());
+        // 没有异常表，也没有 StackMapTable（没有跳转）
+        methods.u2(0);
+        methods.u2(0);
+        methodCount++;
+    }
+
+    private void finishClass() {
+        // public <init>() { super(); }
+        var init = new Bytes();
+        init.u1(0x2a);
+        init.u1(0xb7);
+        init.u2(pool.method("java/lang/Object", "<init>", "()V", false));
+        init.u1(0xb1);
+        addMethod(0x0001, "<init>", "()V", 1, 1, init);
+
+        // public void run(int[] stack, IntConsumer out) { c0(stack, out); c1(stack, out); ... }
+        var run = new Bytes();
+        for (int i = 0; i < chunkCount; i++) {
+            run.u1(0x2b);
+            run.u1(0x2c);
+            run.u1(0xb8);
+            run.u2(pool.method(className, "c" + i, CHUNK_DESCRIPTOR, false));
+        }
+        run.u1(0xb1);
+        addMethod(0x0001, "run", CHUNK_DESCRIPTOR, 2, 3, run);
+
+        int thisClass = pool.cls(className);
+        int superClass = pool.cls("java/lang/Object");
+        int iface = pool.cls(CompiledProgram.class.getName().replace('.', '/'));
+
+        var file = new Bytes();
+        file.u4(0xCAFEBABE);
+        // Java 8，没有跳转就不需要 StackMapTable
+        file.u2(0);
+        file.u2(52);
+        file.u2(pool.count);
+        file.writeBytes(pool.bytes.toByteArray());
+        // public final super
+        file.u2(0x0031);
+        file.u2(thisClass);
+        file.u2(superClass);
+        file.u2(1);
+        file.u2(iface);
+        file.u2(0);
+        file.u2(methodCount);
+        file.writeBytes(methods.toByteArray());
+        file.u2(0);
+
+        var cls = loader.define(className.replace('/', '.'), file.toByteArray());
+        try {
+            programs.add((CompiledProgram) cls.getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot instantiate " + className, e);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package miniplc0java.vm;
+
+import java.util.function.IntConsumer;
+
+/**
+ * BytecodeCompiler 生成的类实现这个接口
+ */
+public interface CompiledProgram {
+    /**
+     * 执行程序的一段，进入和离开时栈的内容都在 stack 里
+     *
+     * @param out 每条 WRT 调用一次
+     */
+    void run(int[] stack, IntConsumer out);
+}
@@ -1,103 +1,372 @@
 package miniplc0java.vm;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntConsumer;
 
 import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.ObjectFile;
+import miniplc0java.instruction.Operation;
 
 public class MiniVm {
-    private List<Instruction> instructions;
+    /**
+     * 程序的执行方式
+     */
+    public enum Engine {
+        /** 逐条解释执行 */
+        INTERPRETER,
+        /** 翻译成 JVM 字节码再执行（见 BytecodeCompiler），栈太深翻译不了时退回解释执行 */
+        COMPILED,
+    }
+
+    // VM 内部的操作码，加载时从 Operation 翻译过来，顺序和 Operation 一样
+    static final int ILL = 0;
+    static final int LIT = 1;
+    static final int LOD = 2;
+    static final int STO = 3;
+    static final int ADD = 4;
+    static final int SUB = 5;
+    static final int MUL = 6;
+    static final int DIV = 7;
+    static final int WRT = 8;
+    // 超级指令，加载时由 fuse 合并出来，只在解释执行时用
+    /** LIT n; ADD */
+    static final int ADD_IMM = 9;
+    /** LIT n; SUB */
+    static final int SUB_IMM = 10;
+    /** LIT n; MUL */
+    static final int MUL_IMM = 11;
+    /** LIT n; DIV */
+    static final int DIV_IMM = 12;
+    /** LOD a; LOD b; ADD */
+    static final int LOD_LOD_ADD = 13;
+    /** LOD a; LIT n; ADD; STO a */
+    static final int INC_LOCAL = 14;
+    /** LOD a; LIT n; SUB; STO a */
+    static final int DEC_LOCAL = 15;
+
+    // 加载后的程序，第 i 条指令是 opcodes[i] 和 operands[i]
+    private int[] opcodes;
+    private int[] operands;
+    // 合并了超级指令的程序，第 i 条指令是 fusedOpcodes[i]，操作数是 fusedOperands[i] 和 fusedOperands2[i]，
+    // 从原来的第 fusedOrigin[i] 条开始。每条只占一个位置，解释执行的循环里 ip 每次只加一
+    private int[] fusedOpcodes;
+    private int[] fusedOperands;
+    private int[] fusedOperands2;
+    private int[] fusedOrigin;
+    // 跑一遍程序栈最多比开始时深多少，Run 之前一次分配够，循环里就不用检查栈满
+    private int maxDepth;
+    // 跑完一遍程序栈比开始时深多少
+    private int finalDepth;
+
     private PrintStream out;
+    private Engine engine;
+    // WRT 写到这里，默认是 out.printf，setOutput 之后是 output
+    private IntConsumer write;
+    private VmOutput output;
+
+    // 编译好的程序，只对从深度 compiledBase 开始执行有效
+    private List<CompiledProgram> compiled;
+    private int compiledBase;
 
     /**
      * @param instructions
      * @param out
+     * @param engine
      */
+    public MiniVm(List<Instruction> instructions, PrintStream out, Engine engine) {
+        load(instructions);
+        this.out = out;
+        this.engine = engine;
+        this.write = x -> out.printf("%d\n", x);
+    }
+
     public MiniVm(List<Instruction> instructions, PrintStream out) {
-        this.instructions = instructions;
+        this(instructions, out, Engine.INTERPRETER);
+    }
+
+    /**
+     * 直接执行目标文件，不用再经过指令表
+     */
+    public MiniVm(ObjectFile program, PrintStream out, Engine engine) {
+        this(program.getOpcodes(), program.getOperands(), out, engine);
+    }
+
+    /**
+     * 直接执行解码好的程序，opcodes 是 Operation 的序号，两个数组之后不能再改
+     */
+    public MiniVm(int[] opcodes, int[] operands, PrintStream out, Engine engine) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        prepare();
         this.out = out;
+        this.engine = engine;
+        this.write = x -> out.printf("%d\n", x);
     }
 
     public MiniVm(List<Instruction> instructions) {
-        this.instructions = instructions;
-        this.out = System.out;
+        this(instructions, System.out, Engine.INTERPRETER);
     }
 
-    private ArrayList<Integer> stack = new ArrayList<>();
+    // 操作数栈，stack[0, sp) 有效
+    private int[] stack = new int[64];
+    private int sp;
 
     private int ip;
 
-    public void Run() {
-        ip = 0;
-        while (ip < instructions.size()) {
-            var inst = instructions.get(ip);
-            RunStep(inst);
-            ip++;
+    /**
+     * 把指令表翻译成两个数组
+     */
+    private void load(List<Instruction> instructions) {
+        int n = instructions.size();
+        opcodes = new int[n];
+        operands = new int[n];
+        for (int i = 0; i < n; i++) {
+            var inst = instructions.get(i);
+            // 操作码和 Operation 的序号一样
+            opcodes[i] = inst.getOpt().ordinal();
+            operands[i] = inst.getX();
         }
+        prepare();
     }
 
-    private Integer pop() {
-        var val = this.stack.get(this.stack.size() - 1);
-        this.stack.remove(this.stack.size() - 1);
-        return val;
+    /**
+     * 算出栈的最大深度（程序里没有跳转，深度是确定的），再合并超级指令
+     */
+    private void prepare() {
+        int depth = 0;
+        for (int op : opcodes) {
+            if (op == LIT || op == LOD) {
+                depth++;
+            } else if (op != ILL) {
+                depth--;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        finalDepth = depth;
+        fuse();
     }
 
-    private void push(Integer i) {
-        this.stack.add(i);
+    /**
+     * 把常见的指令序列合并成超级指令，少几次分派
+     * <p>
+     * 只合并出错时行为不变的序列：LIT n; ADD 这类要求 LIT 之前栈里至少有一个数，其余的不会从空栈弹出，
+     * LOD 和 STO 照样检查下标。
+     */
+    private void fuse() {
+        int n = opcodes.length;
+        fusedOpcodes = new int[n];
+        fusedOperands = new int[n];
+        fusedOperands2 = new int[n];
+        fusedOrigin = new int[n];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < n; i++) {
+            int op = opcodes[i];
+            int next = i + 1 < n ? opcodes[i + 1] : ILL;
+            fusedOrigin[count] = i;
+            fusedOperands[count] = operands[i];
+            if (op == LIT && depth >= 1 && next >= ADD && next <= DIV) {
+                // 合并后栈的深度不变
+                fusedOpcodes[count++] = ADD_IMM + (next - ADD);
+                i++;
+            } else if (op == LOD && next == LOD && i + 2 < n && opcodes[i + 2] == ADD) {
+                fusedOpcodes[count] = LOD_LOD_ADD;
+                fusedOperands2[count++] = operands[i + 1];
+                depth++;
+                i += 2;
+            } else if (op == LOD && next == LIT && i + 3 < n && (opcodes[i + 2] == ADD || opcodes[i + 2] == SUB)
+                    && opcodes[i + 3] == STO && operands[i + 3] == operands[i]) {
+                fusedOpcodes[count] = opcodes[i + 2] == ADD ? INC_LOCAL : DEC_LOCAL;
+                fusedOperands2[count++] = operands[i + 1];
+                i += 3;
+            } else {
+                fusedOpcodes[count++] = op;
+                depth += op == LIT || op == LOD ? 1 : op == ILL ? 0 : -1;
+            }
+        }
+        fusedOpcodes = Arrays.copyOf(fusedOpcodes, count);
+        fusedOperands = Arrays.copyOf(fusedOperands, count);
+        fusedOperands2 = Arrays.copyOf(fusedOperands2, count);
+        fusedOrigin = Arrays.copyOf(fusedOrigin, count);
     }
 
-    private void RunStep(Instruction inst) {
-        switch (inst.getOpt()) {
-            case ADD: {
-                var a = pop();
-                var b = pop();
-                push(a + b);
-            }
-                break;
-            case DIV: {
-                var b = pop();
-                var a = pop();
-                push(a / b);
-            }
-                break;
-            case ILL: {
-                throw new Error("Illegal instruction");
-            }
-            case LIT: {
-                push(inst.getX());
-            }
-                break;
-            case LOD: {
-                var x = stack.get(inst.getX());
-                push(x);
+    /**
+     * 统计程序里每种长度为 length 的连续指令序列出现了几次，用来挑选值得合并成超级指令的序列
+     * <p>
+     * 程序里没有跳转，每条指令执行一次，所以这也是执行时的频率
+     *
+     * @return 从序列（用空格分开的指令名）到次数，按次数从多到少排列
+     */
+    public static Map<String, Integer> sequenceFrequencies(List<Instruction> instructions, int length) {
+        var counts = new HashMap<String, Integer>();
+        var sb = new StringBuilder();
+        for (int i = 0; i + length <= instructions.size(); i++) {
+            sb.setLength(0);
+            for (int j = i; j < i + length; j++) {
+                if (j > i) {
+                    sb.append(' ');
+                }
+                sb.append(instructions.get(j).getOpt());
             }
-                break;
-            case MUL: {
-                var b = pop();
-                var a = pop();
-                push(a * b);
+            counts.merge(sb.toString(), 1, Integer::sum);
+        }
+        var result = new LinkedHashMap<String, Integer>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * 相邻两条指令的统计，见 sequenceFrequencies
+     */
+    public static Map<String, Integer> pairFrequencies(List<Instruction> instructions) {
+        return sequenceFrequencies(instructions, 2);
+    }
+
+    /**
+     * WRT 写到 output 里，代替构造时给的 PrintStream；每次 Run 结束或者出错时 flush
+     */
+    public void setOutput(VmOutput output) {
+        this.output = output;
+        this.write = output;
+    }
+
+    public void Run() {
+        try {
+            if (engine == Engine.COMPILED && runCompiled()) {
+                return;
             }
-                break;
-            case STO: {
-                var x = pop();
-                stack.set(inst.getX(), x);
+            interpret();
+        } finally {
+            if (output != null) {
+                output.flush();
             }
-                break;
-            case SUB: {
-                var b = pop();
-                var a = pop();
-                push(a - b);
+        }
+    }
+
+    /**
+     * 用编译好的程序执行，出错之后栈的内容不确定
+     *
+     * @return 程序翻译不了时为 false
+     */
+    private boolean runCompiled() {
+        if (compiled == null || compiledBase != sp) {
+            try {
+                compiled = BytecodeCompiler.compile(opcodes, operands, sp, maxDepth);
+            } catch (IllegalArgumentException e) {
+                return false;
             }
-                break;
-            case WRT: {
-                var b = pop();
-                out.printf("%d\n", b);
+            compiledBase = sp;
+        }
+        if (stack.length < sp + maxDepth) {
+            stack = Arrays.copyOf(stack, sp + maxDepth);
+        }
+        try {
+            for (var program : compiled) {
+                program.run(stack, write);
             }
-                break;
-            default:
-                break;
+            sp = compiledBase + finalDepth;
+        } catch (RuntimeException | Error e) {
+            sp = 0;
+            throw e;
+        }
+        return true;
+    }
 
+    private void interpret() {
+        final int[] opcodes = this.fusedOpcodes;
+        final int[] operands = this.fusedOperands;
+        final int[] operands2 = this.fusedOperands2;
+        if (stack.length < sp + maxDepth) {
+            stack = Arrays.copyOf(stack, sp + maxDepth);
+        }
+        final int[] stack = this.stack;
+        final IntConsumer write = this.write;
+        int sp = this.sp;
+        int ip = 0;
+        try {
+            for (; ip < opcodes.length; ip++) {
+                switch (opcodes[ip]) {
+                    case LIT:
+                        stack[sp++] = operands[ip];
+                        break;
+                    case LOD: {
+                        var x = stack[Objects.checkIndex(operands[ip], sp)];
+                        stack[sp++] = x;
+                    }
+                        break;
+                    case STO: {
+                        var x = stack[--sp];
+                        stack[Objects.checkIndex(operands[ip], sp)] = x;
+                    }
+                        break;
+                    case ADD: {
+                        var b = stack[--sp];
+                        stack[sp - 1] += b;
+                    }
+                        break;
+                    case SUB: {
+                        var b = stack[--sp];
+                        stack[sp - 1] -= b;
+                    }
+                        break;
+                    case MUL: {
+                        var b = stack[--sp];
+                        stack[sp - 1] *= b;
+                    }
+                        break;
+                    case DIV: {
+                        var b = stack[--sp];
+                        stack[sp - 1] /= b;
+                    }
+                        break;
+                    case WRT:
+                        write.accept(stack[--sp]);
+                        break;
+                    case ADD_IMM:
+                        stack[sp - 1] += operands[ip];
+                        break;
+                    case SUB_IMM:
+                        stack[sp - 1] -= operands[ip];
+                        break;
+                    case MUL_IMM:
+                        stack[sp - 1] *= operands[ip];
+                        break;
+                    case DIV_IMM:
+                        stack[sp - 1] /= operands[ip];
+                        break;
+                    case LOD_LOD_ADD: {
+                        var a = stack[Objects.checkIndex(operands[ip], sp)];
+                        stack[sp] = a;
+                        var b = stack[Objects.checkIndex(operands2[ip], sp + 1)];
+                        stack[sp++] = a + b;
+                    }
+                        break;
+                    case INC_LOCAL:
+                        stack[Objects.checkIndex(operands[ip], sp)] += operands2[ip];
+                        break;
+                    case DEC_LOCAL:
+                        stack[Objects.checkIndex(operands[ip], sp)] -= operands2[ip];
+                        break;
+                    default:
+                        throw new Error("Illegal instruction");
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // 栈在开始时就分配够了，越界只可能是从空栈里弹出
+            sp = 0;
+            throw new IndexOutOfBoundsException("Stack underflow at instruction " + fusedOrigin[ip]);
+        } finally {
+            this.sp = sp;
+            this.ip = ip;
         }
     }
 }
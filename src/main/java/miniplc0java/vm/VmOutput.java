@@ -0,0 +1,101 @@
+package miniplc0java.vm;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.IntConsumer;
+
+/**
+ * WRT 的输出：整数直接按位写成 ASCII 放进一个字节数组，满了才写到下面的流里
+ * <p>
+ * 每个数一行，和 printf("%d\n", x) 的输出一样，但不解析格式串，也不创建对象。
+ * 用 MiniVm.setOutput 代替构造时给的 PrintStream，MiniVm 在 Run 结束或者出错时 flush。
+ * 写出错时抛 UncheckedIOException。
+ */
+public class VmOutput implements IntConsumer, Flushable {
+    private static final int DEFAULT_SIZE = 64 * 1024;
+    // 最长是 "-2147483648\n"
+    private static final int MAX_LINE = 12;
+    private static final byte[] MIN_VALUE = "-2147483648\n".getBytes();
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+
+    public VmOutput(OutputStream out) {
+        this(out, DEFAULT_SIZE);
+    }
+
+    public VmOutput(OutputStream out, int size) {
+        this.out = out;
+        this.buffer = new byte[Math.max(size, MAX_LINE)];
+    }
+
+    @Override
+    public void accept(int value) {
+        write(value);
+    }
+
+    /**
+     * 写一个整数和换行
+     */
+    public void write(int value) {
+        if (count + MAX_LINE > buffer.length) {
+            flushBuffer();
+        }
+        final byte[] buffer = this.buffer;
+        int count = this.count;
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                System.arraycopy(MIN_VALUE, 0, buffer, count, MIN_VALUE.length);
+                this.count = count + MIN_VALUE.length;
+                return;
+            }
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int end = count + stringSize(value);
+        int pos = end;
+        do {
+            int q = value / 10;
+            buffer[--pos] = (byte) ('0' + value - q * 10);
+            value = q;
+        } while (value != 0);
+        buffer[end] = '\n';
+        this.count = end + 1;
+    }
+
+    /**
+     * 非负整数有几位
+     */
+    private static int stringSize(int value) {
+        int size = 1;
+        for (long limit = 10; value >= limit && size < 10; limit *= 10) {
+            size++;
+        }
+        return size;
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * 写出去，下面的流也 flush，但不关闭
+     */
+    @Override
+    public void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
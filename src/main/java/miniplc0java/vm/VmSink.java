@@ -0,0 +1,55 @@
+package miniplc0java.vm;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import miniplc0java.instruction.InstructionSink;
+import miniplc0java.instruction.Operation;
+import miniplc0java.vm.MiniVm.Engine;
+
+/**
+ * 代码生成直接喂给 MiniVm：指令只存成两个 int 数组，不创建 Instruction，finish 之后用 getVm 取出来执行
+ */
+public class VmSink implements InstructionSink {
+    private final PrintStream out;
+    private final Engine engine;
+
+    private int[] opcodes = new int[256];
+    private int[] operands = new int[256];
+    private int size = 0;
+
+    private MiniVm vm;
+
+    public VmSink(PrintStream out, Engine engine) {
+        this.out = out;
+        this.engine = engine;
+    }
+
+    @Override
+    public void emit(Operation opt, int x) {
+        if (size == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+        }
+        opcodes[size] = opt.ordinal();
+        operands[size] = x;
+        size++;
+    }
+
+    @Override
+    public void finish() {
+        vm = new MiniVm(Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size), out, engine);
+        opcodes = null;
+        operands = null;
+    }
+
+    /**
+     * 加载好的程序，finish 之后才有
+     */
+    public MiniVm getVm() {
+        if (vm == null) {
+            throw new IllegalStateException("Program is not finished");
+        }
+        return vm;
+    }
+}
@@ -3,6 +3,100 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import miniplc0java.analyser.Analyser;
+import miniplc0java.error.CompileError;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+
 public class AnalyserTest {
 
+    private static final String PROGRAM = "let x: int = 1;\n"
+            + "const y: int = -2 * 3;\n"
+            + "fn main() -> void {\n"
+            + "    let z: int;\n"
+            + "    while 1 < 2 { break; }\n"
+            + "    return;\n"
+            + "}\n";
+
+    private static CompileError analyseError(Analyser analyser) {
+        try {
+            analyser.analyse();
+        } catch (CompileError e) {
+            return e;
+        }
+        return null;
+    }
+
+    @Test
+    public void testStreamingAndBuffered() throws CompileError {
+        new Analyser(new Tokenizer(new StringIter(PROGRAM))).analyse();
+        new Analyser(new Tokenizer(new StringIter(PROGRAM)).tokenizeAll()).analyse();
+    }
+
+    @Test
+    public void testBufferedReportsSameError() throws CompileError {
+        var source = "fn main() -> void {\n    let z int;\n}\n";
+        var streaming = analyseError(new Analyser(new Tokenizer(new StringIter(source))));
+        var buffered = analyseError(new Analyser(new Tokenizer(new StringIter(source)).tokenizeAll()));
+        assertNotNull(streaming);
+        assertNotNull(buffered);
+        assertEquals(streaming.getErr(), buffered.getErr());
+        assertEquals(streaming.getPos(), buffered.getPos());
+    }
+
+    private static String inMain(String body) {
+        return "fn main() -> void {\n" + body + "\n}\n";
+    }
+
+    @Test
+    public void testExpressions() throws CompileError {
+        var source = inMain("a = b = 1 + 2 * -c as double - f() / g(1, h(x) as int, 'c');\n"
+                + "if a >= (b - 1) * 2 != 0 { return \"s\"; } else if x { } else { x = -(1.5); }");
+        new Analyser(new Tokenizer(new StringIter(source))).analyse();
+        new Analyser(new Tokenizer(new StringIter(source)).tokenizeAll()).analyse();
+    }
+
+    @Test
+    public void testAssignToNonIdent() {
+        for (var expr : new String[] { "a + b = c;", "1 = 2;", "-a = 1;", "(a) = 1;", "f() = 1;" }) {
+            var error = analyseError(new Analyser(new Tokenizer(new StringIter(inMain(expr)))));
+            assertNotNull(expr, error);
+            assertEquals(expr, ErrorCode.InvalidAssignment, error.getErr());
+        }
+    }
+
+    @Test
+    public void testMissingOperand() {
+        var error = analyseError(new Analyser(new Tokenizer(new StringIter(inMain("a = 1 + ;")))));
+        assertNotNull(error);
+        assertEquals(ErrorCode.ExpectedToken, error.getErr());
+        assertEquals(1, error.getPos().row);
+        assertEquals(8, error.getPos().col);
+    }
+
+    @Test
+    public void testDeepInputsDoNotOverflow() throws CompileError {
+        int n = 100000;
+        var sources = new String[] {
+                inMain("x = 1" + " + 1".repeat(n) + ";"),
+                inMain("a = ".repeat(n) + "1;"),
+                inMain("x = " + "(".repeat(n) + "1" + ")".repeat(n) + ";"),
+                inMain("x = " + "-".repeat(n) + "1;"),
+                inMain("x = " + "f(".repeat(n) + ")".repeat(n) + ";"),
+                inMain("{".repeat(n) + "}".repeat(n)),
+                inMain("while x { if y { ".repeat(n) + "} else { } }".repeat(n)),
+                inMain("if a { }" + " else if b { }".repeat(n) + " else { }"),
+        };
+        for (var source : sources) {
+            new Analyser(new Tokenizer(new StringIter(source)).tokenizeAll()).analyse();
+        }
+    }
+
+    @Test
+    public void testUnclosedBlock() {
+        var error = analyseError(new Analyser(new Tokenizer(new StringIter("fn main() -> void { { if x { }"))));
+        assertNotNull(error);
+        assertEquals(ErrorCode.ExpectedToken, error.getErr());
+    }
 }
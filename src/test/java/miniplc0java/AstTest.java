@@ -0,0 +1,152 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.bench.SourceGenerator;
+import miniplc0java.ast.Ast;
+import miniplc0java.ast.AstVisitor;
+import miniplc0java.ast.NodeKind;
+import miniplc0java.error.CompileError;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+
+public class AstTest {
+
+    /**
+     * 把语法树打印成 S 表达式，有子节点的写成 (token 子节点...)，token 是原文
+     */
+    private static class Printer implements AstVisitor {
+        final StringBuilder sb = new StringBuilder();
+
+        private String label(Ast ast, int node) {
+            int token = ast.getToken(node);
+            if (token < 0) {
+                return ast.getKind(node).name();
+            }
+            return String.valueOf(ast.getTokens().getValue(token));
+        }
+
+        @Override
+        public boolean enter(Ast ast, int node) {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '(') {
+                sb.append(' ');
+            }
+            if (ast.getFirstChild(node) >= 0) {
+                sb.append('(');
+            }
+            sb.append(label(ast, node));
+            return true;
+        }
+
+        @Override
+        public void exit(Ast ast, int node) {
+            if (ast.getFirstChild(node) >= 0) {
+                sb.append(')');
+            }
+        }
+    }
+
+    private static Ast parse(String source) throws CompileError {
+        var analyser = new Analyser(new Tokenizer(new StringIter(source)).tokenizeAll());
+        analyser.analyse();
+        return analyser.getAst();
+    }
+
+    /**
+     * 解析一个表达式语句，返回表达式的 S 表达式
+     */
+    private static String expr(String expr) throws CompileError {
+        var ast = parse("fn main() -> void {\n" + expr + ";\n}\n");
+        // PROGRAM -> FUNCTION -> BLOCK -> EXPR_STMT -> 表达式
+        int function = ast.getFirstChild(ast.getRoot());
+        int body = ast.getChild(function, ast.getChildCount(function) - 1);
+        int stmt = ast.getFirstChild(body);
+        assertEquals(NodeKind.EXPR_STMT, ast.getKind(stmt));
+        var printer = new Printer();
+        ast.walk(ast.getFirstChild(stmt), printer);
+        return printer.sb.toString();
+    }
+
+    @Test
+    public void testPrecedence() throws CompileError {
+        assertEquals("(+ 1 (* 2 3))", expr("1 + 2 * 3"));
+        assertEquals("(- (- 1 2) 3)", expr("1 - 2 - 3"));
+        assertEquals("(= a (= b (< (+ c 1) d)))", expr("a = b = c + 1 < d"));
+        assertEquals("(* (as (- x) double) 2)", expr("-x as double * 2"));
+        assertEquals("(* (- (- 1 2)) 3)", expr("-(1 - 2) * 3"));
+        assertEquals("(== (!= a b) c)", expr("a != b == c"));
+    }
+
+    @Test
+    public void testCalls() throws CompileError {
+        assertEquals("(f 1 g (as (h x) int))", expr("f(1, g(), h(x) as int)"));
+    }
+
+    @Test
+    public void testStatements() throws CompileError {
+        var ast = parse("let x: int = 1;\n"
+                + "fn f(a: int, const b: double) -> int {\n"
+                + "    if a { return 1; } else if b { } else { while 1 { break; } }\n"
+                + "}\n");
+        var printer = new Printer();
+        ast.walk(printer);
+        assertEquals("(PROGRAM (x int 1) (f (a int) (b double) int (BLOCK "
+                + "(if a (BLOCK (return 1)) (if b BLOCK (BLOCK (while 1 (BLOCK break))))))))",
+                printer.sb.toString());
+    }
+
+    @Test
+    public void testDeepTreeWalk() throws CompileError {
+        int n = 100000;
+        var ast = parse("fn main() -> void {\nx = " + "(".repeat(n) + "1" + " + 1)".repeat(n) + ";\n}\n");
+        int[] count = new int[1];
+        ast.walk(new AstVisitor() {
+            @Override
+            public boolean enter(Ast ast, int node) {
+                count[0]++;
+                return true;
+            }
+        });
+        assertEquals(ast.size(), count[0]);
+    }
+
+    @Test
+    public void testDiscardAst() throws CompileError {
+        var sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            SourceGenerator.appendFunction(sb, i);
+        }
+        var source = sb.toString();
+        var kept = new Analyser(new Tokenizer(new StringIter(source)));
+        var discarded = new Analyser(new Tokenizer(new StringIter(source)));
+        discarded.setKeepAst(false);
+        kept.analyse();
+        discarded.analyse();
+        assertEquals(50, kept.getAst().getChildCount(kept.getAst().getRoot()));
+        // 只剩 PROGRAM
+        assertEquals(1, discarded.getAst().size());
+        assertEquals(-1, discarded.getAst().getFirstChild(discarded.getAst().getRoot()));
+    }
+
+    @Test
+    public void testTruncate() {
+        var ast = new Ast(null);
+        int root = ast.add(NodeKind.PROGRAM, -1);
+        int a = ast.add(NodeKind.BLOCK, -1);
+        ast.appendChild(root, a);
+        int b = ast.add(NodeKind.BLOCK, -1);
+        ast.appendChild(root, b);
+        ast.appendChild(b, ast.add(NodeKind.BLOCK, -1));
+        ast.truncate(b);
+        assertEquals(2, ast.size());
+        assertEquals(a, ast.getFirstChild(root));
+        assertEquals(-1, ast.getNextSibling(a));
+        // 截断之后还能接着加
+        int c = ast.add(NodeKind.BLOCK, -1);
+        ast.appendChild(root, c);
+        assertEquals(2, ast.getChildCount(root));
+    }
+}
@@ -0,0 +1,114 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import miniplc0java.BatchCompiler.Result.Status;
+import miniplc0java.error.CompileError;
+import miniplc0java.optimizer.Optimizer;
+import miniplc0java.tokenizer.StringIter;
+
+public class BatchCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String compileAlone(String source, boolean tokenize) throws CompileError {
+        var bytes = new ByteArrayOutputStream();
+        var output = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        App.compile(new StringIter(source), tokenize, false, new Optimizer(0), output);
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private Path write(Path dir, String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+
+    @Test
+    public void testDirectory() throws IOException, CompileError {
+        var inputs = folder.newFolder("in").toPath();
+        var outputs = folder.newFolder("out").toPath();
+        var good = "fn main() -> void {\n    let x: int = 1 + 2;\n}\n";
+        write(inputs, "a.c0", good);
+        write(inputs, "b.c0", "fn main() -> void {\n    let x int;\n}\n");
+        write(inputs, "c.c0", "let s = \"unterminated");
+
+        var jobs = BatchCompiler.listDirectory(inputs, outputs);
+        var pool = new ForkJoinPool(2);
+        List<BatchCompiler.Result> results;
+        try {
+            results = BatchCompiler.compileAll(jobs, true, new Optimizer(0), pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(3, results.size());
+        assertEquals(Status.OK, results.get(0).status);
+        // b.c0 的词法没有问题
+        assertEquals(Status.OK, results.get(1).status);
+        assertEquals(Status.ERROR, results.get(2).status);
+        assertEquals(compileAlone(good, true), Files.readString(outputs.resolve("a.c0.out")));
+        assertEquals("", Files.readString(outputs.resolve("c.c0.out")));
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        var dir = folder.getRoot().toPath();
+        write(dir, "a.c0", "fn main() -> void { }\n");
+        write(dir, "b.c0", "fn main() -> void {\n    let x int;\n}\n");
+        var manifest = write(dir, "list.txt", "# 注释\na.c0 a.asm\n\nb.c0\nmissing.c0\n");
+
+        var jobs = BatchCompiler.readManifest(manifest, dir.resolve("out"));
+        Files.createDirectories(dir.resolve("out"));
+        assertEquals(dir.resolve("a.asm"), jobs.get(0).output);
+        assertEquals(dir.resolve("out").resolve("b.c0.out"), jobs.get(1).output);
+
+        var pool = new ForkJoinPool(2);
+        try {
+            var results = BatchCompiler.compileAll(jobs, false, new Optimizer(0), pool);
+            assertEquals(Status.OK, results.get(0).status);
+            assertEquals(Status.ERROR, results.get(1).status);
+            assertEquals(Status.FAILED, results.get(2).status);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(true, Files.exists(dir.resolve("a.asm")));
+    }
+
+    @Test
+    public void testManifestWithSpaces() throws IOException {
+        var dir = folder.getRoot().toPath();
+        var manifest = write(dir, "list.txt", "my file.c0\tmy out.asm\nother file.c0\t\n");
+        var jobs = BatchCompiler.readManifest(manifest, dir.resolve("out"));
+        assertEquals(dir.resolve("my file.c0"), jobs.get(0).input);
+        assertEquals(dir.resolve("my out.asm"), jobs.get(0).output);
+        assertEquals(dir.resolve("other file.c0"), jobs.get(1).input);
+        assertEquals(dir.resolve("out").resolve("other file.c0.out"), jobs.get(1).output);
+    }
+
+    @Test
+    public void testBadThreads() {
+        var stderr = new ByteArrayOutputStream();
+        var dir = folder.getRoot().toPath();
+        for (var threads : new String[] { "0", "-1" }) {
+            App.run(new String[] { "-t", "-b", "--threads", threads, "in", "-o", "out" }, dir,
+                    InputStream.nullInputStream(), new PrintStream(new ByteArrayOutputStream()),
+                    new PrintStream(stderr, true, StandardCharsets.UTF_8));
+            assertTrue(stderr.toString(StandardCharsets.UTF_8).contains("--threads"));
+            stderr.reset();
+        }
+    }
+}
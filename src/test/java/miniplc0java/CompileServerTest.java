@@ -0,0 +1,179 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import miniplc0java.error.CompileError;
+import miniplc0java.optimizer.Optimizer;
+import miniplc0java.tokenizer.StringIter;
+
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
+public class CompileServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CompileServer server;
+    private Thread thread;
+    private Path tokenDir;
+
+    @Before
+    public void start() throws IOException {
+        tokenDir = folder.newFolder("tokens").toPath();
+        server = new CompileServer(0, 2, tokenDir);
+        thread = new Thread(server::serve);
+        thread.start();
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        server.close();
+        thread.join();
+    }
+
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    private int request(byte kind, Path cwd, byte[] stdin, String... args) throws IOException {
+        var token = CompileServer.readToken(tokenDir, server.getPort());
+        return CompileClient.request(server.getPort(), token, kind, cwd, args, stdin, stdout, stderr);
+    }
+
+    @Test
+    public void testCompile() throws IOException, CompileError {
+        var source = "fn main() -> void {\n    let x: int = 1 + 2;\n}\n";
+        var expected = new ByteArrayOutputStream();
+        App.compile(new StringIter(source), true, false, new Optimizer(0),
+                new PrintStream(expected, true, StandardCharsets.UTF_8));
+
+        // 从标准输入读，输出到标准输出
+        int exitCode = request(CompileServer.COMPILE, folder.getRoot().toPath(),
+                source.getBytes(StandardCharsets.UTF_8), "-t", "-", "-o", "-");
+        assertEquals(0, exitCode);
+        assertEquals(expected.toString(StandardCharsets.UTF_8), stdout.toString(StandardCharsets.UTF_8));
+
+        // 相对路径相对于客户端的工作目录
+        var dir = folder.getRoot().toPath();
+        Files.writeString(dir.resolve("a.c0"), source);
+        exitCode = request(CompileServer.COMPILE, dir, null, "-t", "a.c0", "-o", "a.out");
+        assertEquals(0, exitCode);
+        assertEquals(expected.toString(StandardCharsets.UTF_8), Files.readString(dir.resolve("a.out")));
+    }
+
+    @Test
+    public void testErrorsAndStats() throws IOException {
+        var dir = folder.getRoot().toPath();
+        int exitCode = request(CompileServer.COMPILE, dir, "let s = \"oops".getBytes(StandardCharsets.UTF_8), "-t",
+                "-", "-o", "-");
+        // 编译错误和直接运行时一样只打印出来
+        assertEquals(0, exitCode);
+        assertTrue(stderr.toString(StandardCharsets.UTF_8).contains("Error"));
+
+        exitCode = request(CompileServer.COMPILE, dir, null, "-t", "missing.c0", "-o", "-");
+        assertEquals(2, exitCode);
+
+        // 正常编译的不算失败
+        exitCode = request(CompileServer.COMPILE, dir, "let x = 1;".getBytes(StandardCharsets.UTF_8), "-t", "-", "-o",
+                "-");
+        assertEquals(0, exitCode);
+
+        stdout.reset();
+        assertEquals(0, request(CompileServer.STATS, dir, null));
+        var stats = stdout.toString(StandardCharsets.UTF_8);
+        assertTrue(stats, stats.contains("requests: 3"));
+        assertTrue(stats, stats.contains("failed: 2"));
+    }
+
+    @Test
+    public void testShutdown() throws IOException, InterruptedException {
+        var tokenFile = CompileServer.tokenFile(tokenDir, server.getPort());
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+        }
+        assertEquals(0, request(CompileServer.SHUTDOWN, Path.of(""), null));
+        thread.join();
+        assertFalse(Files.exists(tokenFile));
+    }
+
+    @Test
+    public void testRejectsWrongToken() throws IOException {
+        var dir = folder.getRoot().toPath();
+        Files.writeString(dir.resolve("a.c0"), "let x: int = 1;\n");
+        var token = new byte[CompileServer.TOKEN_LENGTH];
+        int exitCode = CompileClient.request(server.getPort(), token, CompileServer.COMPILE, dir,
+                new String[] { "-t", "a.c0", "-o", "a.out" }, null, stdout, stderr);
+        assertEquals(2, exitCode);
+        assertTrue(stderr.toString(StandardCharsets.UTF_8).contains("wrong token"));
+        assertFalse(Files.exists(dir.resolve("a.out")));
+
+        // 关不掉
+        stderr.reset();
+        assertEquals(2, CompileClient.request(server.getPort(), token, CompileServer.SHUTDOWN, dir, null, null,
+                stdout, stderr));
+        assertEquals(0, request(CompileServer.STATS, dir, null));
+    }
+
+    @Test
+    public void testRejectsBadArgumentCount() throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            var out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(CompileServer.MAGIC);
+            out.write(CompileServer.readToken(tokenDir, server.getPort()));
+            out.writeByte(CompileServer.COMPILE);
+            out.writeUTF("/");
+            out.writeInt(-1);
+            out.flush();
+            var in = new DataInputStream(socket.getInputStream());
+            assertEquals(CompileServer.STDERR, in.readByte());
+            in.skipNBytes(in.readInt());
+            assertEquals(CompileServer.END, in.readByte());
+            assertEquals(2, in.readInt());
+        }
+    }
+
+    @Test
+    public void testHelp() throws IOException {
+        assertEquals(0, request(CompileServer.COMPILE, Path.of(""), null, "-h"));
+        assertTrue(stdout.toString(StandardCharsets.UTF_8).contains("usage: miniplc0-java"));
+    }
+
+    @Test
+    public void testBadArguments() throws ArgumentParserException {
+        var argparse = CompileServer.buildArgparse();
+        var result = argparse.parseArgs(new String[] { "--port", "0", "--threads", "3" });
+        assertEquals(0, (int) result.getInt("port"));
+        assertEquals(3, (int) result.getInt("threads"));
+        String[][] bad = { { "--port", "x" }, { "--port", "70000" }, { "--threads", "0" }, { "--threads" },
+                { "--bogus", "1" }, { "7700" } };
+        for (var args : bad) {
+            try {
+                argparse.parseArgs(args);
+                fail(String.join(" ", args));
+            } catch (ArgumentParserException e) {
+                // 应该报错
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import miniplc0java.bench.SourceGenerator;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.IncrementalTokenizer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.Tokenizer;
+
+public class IncrementalTokenizerTest {
+
+    private static final String[] INSERTS = { "a", "1", " ", "\n", "/", "//", "\"", "'", ".", "=", "-", ">", "fn",
+            "x.5", "\"s\n\"", "// c\n" };
+
+    private static List<Token> toList(TokenBuffer buffer) {
+        var tokens = new ArrayList<Token>();
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.get(i));
+        }
+        return tokens;
+    }
+
+    /**
+     * 增量解析的结果（或者错误）要和从头解析一样
+     */
+    private static void assertSameAsFull(IncrementalTokenizer incremental, TokenizeError error) {
+        var text = incremental.getText().toString();
+        try {
+            var expected = toList(new Tokenizer(new StringIter(text)).tokenizeAll());
+            if (error != null) {
+                fail("unexpected " + error + " for " + text);
+            }
+            assertEquals(expected, toList(incremental.getTokens()));
+        } catch (TokenizeError e) {
+            if (error == null) {
+                throw new AssertionError("expected " + e + " for " + text);
+            }
+            assertEquals(e.getErr(), error.getErr());
+            assertEquals(e.getPos(), error.getPos());
+        }
+    }
+
+    @Test
+    public void testRandomEditsMatchFullTokenize() throws TokenizeError {
+        var random = new Random(1);
+        var incremental = new IncrementalTokenizer(SourceGenerator.generate(2000));
+        for (int round = 0; round < 500; round++) {
+            int length = incremental.getText().length();
+            int offset = random.nextInt(length + 1);
+            int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(20), length - offset) : 0;
+            var inserted = random.nextBoolean() ? INSERTS[random.nextInt(INSERTS.length)] : "";
+            TokenizeError error = null;
+            try {
+                incremental.edit(offset, removed, inserted);
+            } catch (TokenizeError e) {
+                error = e;
+            }
+            assertSameAsFull(incremental, error);
+        }
+    }
+
+    @Test
+    public void testSmallEditRelexesFewTokens() throws TokenizeError {
+        var source = SourceGenerator.generate(100000);
+        var incremental = new IncrementalTokenizer(source);
+        int total = incremental.getTokens().size();
+        int at = source.indexOf("counter_100 ");
+        // 改一个标识符，然后在中间插一个空行
+        assertEquals(1, incremental.edit(at + "counter_".length(), 3, "abc"));
+        assertTrue(incremental.edit(source.indexOf('\n', source.length() / 2), 0, "\n") < 3);
+        assertSameAsFull(incremental, null);
+        assertEquals(total, incremental.getTokens().size());
+    }
+
+    @Test
+    public void testRecoversAfterError() throws TokenizeError {
+        var incremental = new IncrementalTokenizer("let s = 1;\nlet t = 2;\n");
+        try {
+            incremental.edit(8, 0, "\"");
+            fail("unterminated string");
+        } catch (TokenizeError e) {
+            assertEquals(ErrorCode.EOF, e.getErr());
+        }
+        incremental.edit(8, 1, "");
+        assertSameAsFull(incremental, null);
+    }
+}
@@ -0,0 +1,75 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.Test;
+
+import miniplc0java.bench.VmBenchmark;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.InstructionBuffer;
+import miniplc0java.instruction.ListSink;
+import miniplc0java.instruction.Operation;
+
+public class InstructionBufferTest {
+
+    @Test
+    public void testRoundTrip() {
+        var instructions = List.of(new Instruction(Operation.LIT, Integer.MIN_VALUE),
+                new Instruction(Operation.LIT, Integer.MAX_VALUE), new Instruction(Operation.LIT, -1),
+                new Instruction(Operation.ADD), new Instruction(Operation.WRT), new Instruction(Operation.ILL));
+        var buffer = InstructionBuffer.of(instructions);
+        assertEquals(instructions, buffer.toList());
+        assertEquals(Operation.LIT, buffer.getOpt(2));
+        assertEquals(-1, buffer.getX(2));
+        assertEquals(Operation.ILL.ordinal(), buffer.getOpcode(5));
+
+        // 会扩容
+        var large = VmBenchmark.arithmetic(1000);
+        assertEquals(large, InstructionBuffer.of(large).toList());
+    }
+
+    @Test
+    public void testBackpatch() {
+        var buffer = new InstructionBuffer();
+        int patch = buffer.add(Operation.LIT);
+        buffer.add(Operation.WRT);
+        for (int x : new int[] { -1, Integer.MIN_VALUE, 12345, Integer.MAX_VALUE }) {
+            buffer.setX(patch, x);
+            assertEquals(Operation.LIT, buffer.getOpt(patch));
+            assertEquals(x, buffer.getX(patch));
+            assertEquals(Operation.WRT, buffer.getOpt(patch + 1));
+            assertEquals(0, buffer.getX(patch + 1));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        var buffer = new InstructionBuffer();
+        buffer.add(Operation.LIT, 1);
+        buffer.clear();
+        buffer.getX(0);
+    }
+
+    @Test
+    public void testDrainTo() {
+        var instructions = VmBenchmark.arithmetic(10);
+        var buffer = InstructionBuffer.of(instructions);
+        var sink = new ListSink();
+        buffer.drainTo(sink);
+        assertEquals(0, buffer.size());
+        buffer.add(Operation.WRT);
+        buffer.drainTo(sink);
+        assertEquals(instructions.size() + 1, sink.getInstructions().size());
+        assertEquals(instructions, sink.getInstructions().subList(0, instructions.size()));
+    }
+
+    @Test
+    public void testHashCode() {
+        var inst = new Instruction(Operation.STO, 3);
+        assertEquals(Objects.hash(Operation.STO, 3), inst.hashCode());
+        assertEquals(new Instruction(Operation.STO, 3).hashCode(), inst.hashCode());
+    }
+}
@@ -0,0 +1,135 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.bench.VmBenchmark;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.InstructionSink;
+import miniplc0java.instruction.ListSink;
+import miniplc0java.instruction.ObjectFile;
+import miniplc0java.instruction.ObjectFileSink;
+import miniplc0java.instruction.Operation;
+import miniplc0java.instruction.TextSink;
+import miniplc0java.optimizer.Optimizer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.LineWriter;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+import miniplc0java.vm.VmSink;
+
+public class InstructionSinkTest {
+
+    /**
+     * 把指令发给 sink，每 functionSize 条结束一个函数
+     */
+    private static void emitAll(List<Instruction> instructions, int functionSize, InstructionSink sink) {
+        for (int i = 0; i < instructions.size(); i++) {
+            sink.emit(instructions.get(i));
+            if ((i + 1) % functionSize == 0) {
+                sink.endFunction("f" + i);
+            }
+        }
+        sink.finish();
+    }
+
+    @Test
+    public void testAnalyserEndsFunctions() throws CompileError {
+        var events = new ArrayList<String>();
+        var sink = new InstructionSink() {
+            @Override
+            public void emit(Operation opt, int x) {
+                events.add(opt + " " + x);
+            }
+
+            @Override
+            public void endFunction(String name) {
+                events.add("end " + name);
+            }
+
+            @Override
+            public void finish() {
+                events.add("finish");
+            }
+        };
+        var source = "let x: int = 1;\nfn f() -> void { }\nfn main() -> void { f(); }\n";
+        var analyser = new Analyser(new Tokenizer(new StringIter(source)), sink);
+        assertEquals(List.of(), analyser.analyse());
+        assertEquals(List.of("end f", "end main", "finish"), events);
+    }
+
+    @Test
+    public void testTextSink() {
+        var instructions = VmBenchmark.arithmetic(10);
+        var bytes = new ByteArrayOutputStream();
+        emitAll(instructions, 7, new TextSink(new LineWriter(bytes)));
+        var expected = new StringBuilder();
+        for (var inst : instructions) {
+            expected.append(inst).append(System.lineSeparator());
+        }
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testObjectFileSink() throws IOException {
+        // 比缓冲区大，中间要写好几次
+        var instructions = new ArrayList<>(VmBenchmark.arithmetic(5000));
+        instructions.add(new Instruction(Operation.LIT, Integer.MIN_VALUE));
+        instructions.add(new Instruction(Operation.WRT));
+        var path = Files.createTempFile("miniplc0", ".o0");
+        try {
+            try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                emitAll(instructions, 20000, new ObjectFileSink(channel));
+            }
+            assertEquals(instructions, ObjectFile.read(path).toInstructions());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testVmSink() {
+        var instructions = VmBenchmark.arithmetic(100);
+        var expected = new ByteArrayOutputStream();
+        new MiniVm(instructions, new PrintStream(expected, true)).Run();
+        for (var engine : Engine.values()) {
+            var actual = new ByteArrayOutputStream();
+            var sink = new VmSink(new PrintStream(actual, true), engine);
+            emitAll(instructions, 30, sink);
+            sink.getVm().Run();
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testOptimizerWrap() {
+        var instructions = List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.LIT, 2),
+                new Instruction(Operation.ADD), new Instruction(Operation.LIT, 0), new Instruction(Operation.ADD),
+                new Instruction(Operation.WRT));
+        var optimizer = new Optimizer(2);
+        var sink = new ListSink();
+        emitAll(instructions, instructions.size() + 1, optimizer.wrap(sink));
+        assertEquals(new Optimizer(2).optimize(instructions), sink.getInstructions());
+        assertTrue(optimizer.report(), optimizer.report().contains("6 -> 2 instructions"));
+
+        // 不跨过函数的边界化简
+        sink = new ListSink();
+        emitAll(instructions, 2, new Optimizer(2).wrap(sink));
+        assertEquals(instructions, sink.getInstructions());
+    }
+}
@@ -0,0 +1,126 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import miniplc0java.bench.VmBenchmark;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+
+/**
+ * 同一个程序用解释执行和编译执行，输出和抛出的异常要一样
+ */
+public class MiniVmEngineTest {
+
+    /**
+     * 执行 runs 遍，返回输出，出错时在最后加上异常的类名
+     */
+    private static String run(List<Instruction> instructions, Engine engine, int runs) {
+        var bytes = new ByteArrayOutputStream();
+        var output = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        var vm = new MiniVm(instructions, output, engine);
+        try {
+            for (int i = 0; i < runs; i++) {
+                vm.Run();
+            }
+        } catch (RuntimeException | Error e) {
+            output.println(e.getClass().getName());
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameOutput(List<Instruction> instructions, int runs) {
+        assertEquals(run(instructions, Engine.INTERPRETER, runs), run(instructions, Engine.COMPILED, runs));
+    }
+
+    /**
+     * 随机生成一个程序，偶尔带上会出错的指令
+     */
+    private static List<Instruction> randomProgram(Random random, int size) {
+        var instructions = new ArrayList<Instruction>();
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            int choice = random.nextInt(100);
+            if (choice == 0) {
+                instructions.add(new Instruction(Operation.values()[random.nextInt(Operation.values().length)],
+                        random.nextInt(depth + 2) - 1));
+                break;
+            }
+            if (depth < 2 || choice < 30) {
+                instructions.add(new Instruction(Operation.LIT, random.nextInt(2000) - 1000));
+                depth++;
+            } else if (choice < 45) {
+                instructions.add(new Instruction(Operation.LOD, random.nextInt(depth)));
+                depth++;
+            } else if (choice < 55) {
+                instructions.add(new Instruction(Operation.STO, random.nextInt(depth - 1)));
+                depth--;
+            } else if (choice < 85) {
+                var ops = new Operation[] { Operation.ADD, Operation.SUB, Operation.MUL, Operation.DIV };
+                instructions.add(new Instruction(ops[random.nextInt(ops.length)]));
+                depth--;
+            } else {
+                instructions.add(new Instruction(Operation.WRT));
+                depth--;
+            }
+        }
+        return instructions;
+    }
+
+    @Test
+    public void testRandomPrograms() {
+        var random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            assertSameOutput(randomProgram(random, 1 + random.nextInt(200)), 1 + random.nextInt(2));
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        // 从空栈弹出
+        assertSameOutput(List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.WRT),
+                new Instruction(Operation.ADD)), 1);
+        // 越界
+        assertSameOutput(List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.LOD, 1)), 1);
+        assertSameOutput(List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.STO, 0)), 1);
+        // 除以 0
+        assertSameOutput(List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.LIT, 0),
+                new Instruction(Operation.DIV)), 1);
+        assertSameOutput(List.of(new Instruction(Operation.ILL)), 1);
+    }
+
+    @Test
+    public void testLargeProgram() {
+        // 切成很多段，不止一个类
+        assertSameOutput(VmBenchmark.arithmetic(300000), 2);
+    }
+
+    @Test
+    public void testDeepStack() {
+        var instructions = new ArrayList<Instruction>();
+        for (int i = 0; i < 5000; i++) {
+            instructions.add(new Instruction(Operation.LIT, i * 7919));
+        }
+        instructions.add(new Instruction(Operation.LOD, 17));
+        instructions.add(new Instruction(Operation.STO, 4000));
+        for (int i = 1; i < 5000; i++) {
+            instructions.add(new Instruction(i % 3 == 0 ? Operation.SUB : Operation.ADD));
+            if (i % 1000 == 0) {
+                instructions.add(new Instruction(Operation.LOD, 0));
+                instructions.add(new Instruction(Operation.WRT));
+            }
+        }
+        instructions.add(new Instruction(Operation.WRT));
+        assertSameOutput(instructions, 1);
+    }
+}
@@ -1,17 +1,21 @@
 package miniplc0java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
 import miniplc0java.instruction.Instruction;
 import miniplc0java.instruction.Operation;
 import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+import miniplc0java.vm.VmOutput;
 
 public class MiniVmTest {
 
@@ -113,4 +117,118 @@ public class MiniVmTest {
 
         assertEquals(String.format("Stack top should be 1, 2", outString), "1\n2\n", outString);
     }
+
+    @Test
+    public void testDeepStack() {
+        var instructions = new ArrayList<Instruction>();
+        for (int i = 0; i < 1000; i++) {
+            instructions.add(new Instruction(Operation.LIT, i));
+        }
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.STO, 998));
+        for (int i = 0; i < 3; i++) {
+            instructions.add(new Instruction(Operation.WRT));
+        }
+
+        var outString = RunVm(instructions);
+
+        assertEquals("Stack top should be 999, 0, 997", "999\n0\n997\n", outString);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLoadOutOfStack() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 1));
+        instructions.add(new Instruction(Operation.LOD, 1));
+
+        RunVm(instructions);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testStackUnderflow() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 1));
+        instructions.add(new Instruction(Operation.ADD));
+
+        RunVm(instructions);
+    }
+
+    @Test
+    public void testFusedSequences() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 10));
+        instructions.add(new Instruction(Operation.LIT, 20)); // 10 20
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.LIT, 5));
+        instructions.add(new Instruction(Operation.SUB));
+        instructions.add(new Instruction(Operation.STO, 0)); // 5 20
+        instructions.add(new Instruction(Operation.LOD, 1));
+        instructions.add(new Instruction(Operation.LIT, 3));
+        instructions.add(new Instruction(Operation.ADD));
+        instructions.add(new Instruction(Operation.STO, 1)); // 5 23
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.LOD, 2));
+        instructions.add(new Instruction(Operation.ADD)); // 5 23 10
+        instructions.add(new Instruction(Operation.LIT, 7));
+        instructions.add(new Instruction(Operation.MUL));
+        instructions.add(new Instruction(Operation.LIT, 4));
+        instructions.add(new Instruction(Operation.DIV)); // 5 23 17
+        instructions.add(new Instruction(Operation.WRT));
+        instructions.add(new Instruction(Operation.WRT));
+        instructions.add(new Instruction(Operation.WRT));
+
+        var outString = RunVm(instructions);
+
+        assertEquals("Stack top should be 17, 23, 5", "17\n23\n5\n", outString);
+    }
+
+    @Test
+    public void testPairFrequencies() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 1));
+        instructions.add(new Instruction(Operation.LIT, 2));
+        instructions.add(new Instruction(Operation.ADD));
+        instructions.add(new Instruction(Operation.LIT, 3));
+        instructions.add(new Instruction(Operation.ADD));
+        instructions.add(new Instruction(Operation.WRT));
+
+        var pairs = MiniVm.pairFrequencies(instructions);
+
+        assertEquals(Map.of("LIT ADD", 2, "ADD LIT", 1, "LIT LIT", 1, "ADD WRT", 1), pairs);
+        assertEquals("LIT ADD", pairs.keySet().iterator().next());
+    }
+
+    @Test
+    public void testBufferedOutput() {
+        var instructions = new ArrayList<Instruction>();
+        for (int x : new int[] { 0, 9, 10, -1, 123456789, -1000000000, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+            instructions.add(new Instruction(Operation.LIT, x));
+            instructions.add(new Instruction(Operation.WRT));
+        }
+        var expected = RunVm(instructions);
+        for (var engine : Engine.values()) {
+            var bytes = new ByteArrayOutputStream();
+            var vm = new MiniVm(instructions, new PrintStream(bytes), engine);
+            // 缓冲区很小，中间要写好几次
+            vm.setOutput(new VmOutput(bytes, 16));
+            vm.Run();
+            assertEquals(expected, bytes.toString());
+        }
+    }
+
+    @Test
+    public void testBufferedOutputFlushedOnError() {
+        var instructions = List.of(new Instruction(Operation.LIT, 42), new Instruction(Operation.WRT),
+                new Instruction(Operation.WRT));
+        var bytes = new ByteArrayOutputStream();
+        var vm = new MiniVm(instructions, new PrintStream(bytes));
+        vm.setOutput(new VmOutput(bytes));
+        try {
+            vm.Run();
+            fail("Expected stack underflow");
+        } catch (IndexOutOfBoundsException e) {
+            // 出错之前的输出也要写出去
+            assertEquals("42\n", bytes.toString());
+        }
+    }
 }
@@ -0,0 +1,115 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import miniplc0java.bench.VmBenchmark;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.ObjectFile;
+import miniplc0java.instruction.Operation;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+
+public class ObjectFileTest {
+
+    private static List<Instruction> program() {
+        var instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction(Operation.LIT, 1 << 23));
+        instructions.add(new Instruction(Operation.LIT, -(1 << 23)));
+        instructions.add(new Instruction(Operation.LIT, Integer.MIN_VALUE));
+        instructions.add(new Instruction(Operation.LIT, Integer.MAX_VALUE));
+        instructions.add(new Instruction(Operation.LIT, (1 << 23) - 1));
+        instructions.add(new Instruction(Operation.LIT, -1));
+        instructions.add(new Instruction(Operation.ADD));
+        instructions.add(new Instruction(Operation.LOD, 0));
+        instructions.add(new Instruction(Operation.STO, 1));
+        instructions.add(new Instruction(Operation.WRT));
+        instructions.add(new Instruction(Operation.WRT));
+        // 大数重复出现时常量池里只有一个
+        instructions.add(new Instruction(Operation.LIT, Integer.MAX_VALUE));
+        instructions.add(new Instruction(Operation.WRT));
+        return instructions;
+    }
+
+    private static ObjectFile roundTrip(List<Instruction> instructions) throws IOException {
+        return ObjectFile.decode(ObjectFile.encode(instructions));
+    }
+
+    private static String run(MiniVm vm, ByteArrayOutputStream bytes) {
+        try {
+            vm.Run();
+        } catch (RuntimeException e) {
+            return bytes.toString(StandardCharsets.UTF_8) + e.getClass().getName();
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        var instructions = program();
+        assertEquals(instructions, roundTrip(instructions).toInstructions());
+        assertEquals(List.of(), roundTrip(List.of()).toInstructions());
+        // 3 个不同的大数，一个叫 main 的函数
+        assertEquals(20 + instructions.size() * 4 + 3 * 4 + 14, ObjectFile.encode(instructions).limit());
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        var path = Files.createTempFile("miniplc0", ".o0");
+        try {
+            var instructions = VmBenchmark.arithmetic(1000);
+            ObjectFile.write(instructions, path);
+            assertEquals(instructions, ObjectFile.read(path).toInstructions());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testCorrupted() {
+        var bytes = new byte[ObjectFile.encode(program()).limit()];
+        ObjectFile.encode(program()).get(bytes);
+        for (int length = 0; length < bytes.length; length += 3) {
+            try {
+                ObjectFile.decode(ByteBuffer.wrap(bytes, 0, length));
+                fail("Truncated at " + length);
+            } catch (IOException e) {
+                // 应该出错
+            }
+        }
+        bytes[0] = 'X';
+        try {
+            ObjectFile.decode(ByteBuffer.wrap(bytes));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Not a C0 object file"));
+        }
+    }
+
+    @Test
+    public void testRunObjectFile() throws IOException {
+        var programs = List.of(program(), VmBenchmark.arithmetic(100),
+                List.of(new Instruction(Operation.LIT, 1), new Instruction(Operation.ADD)));
+        for (var instructions : programs) {
+            var expected = new ByteArrayOutputStream();
+            var expectedOutput = run(new MiniVm(instructions, new PrintStream(expected, true)), expected);
+            for (var engine : Engine.values()) {
+                var actual = new ByteArrayOutputStream();
+                var vm = new MiniVm(roundTrip(instructions), new PrintStream(actual, true), engine);
+                assertEquals(expectedOutput, run(vm, actual));
+            }
+        }
+    }
+}
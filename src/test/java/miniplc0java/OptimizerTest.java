@@ -0,0 +1,112 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.Optimizer;
+import miniplc0java.vm.MiniVm;
+
+public class OptimizerTest {
+
+    /**
+     * 把 "LIT 1; LIT 2; ADD" 这样的文本变成指令
+     */
+    private static List<Instruction> parse(String program) {
+        var instructions = new ArrayList<Instruction>();
+        for (var part : program.split(";")) {
+            var fields = part.strip().split(" ");
+            var opt = Operation.valueOf(fields[0]);
+            instructions.add(fields.length > 1 ? new Instruction(opt, Integer.parseInt(fields[1]))
+                    : new Instruction(opt));
+        }
+        return instructions;
+    }
+
+    private static String optimize(int level, String program) {
+        var sb = new StringBuilder();
+        for (var inst : new Optimizer(level).optimize(parse(program))) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(inst);
+        }
+        return sb.toString();
+    }
+
+    private static String run(List<Instruction> instructions) {
+        var bytes = new ByteArrayOutputStream();
+        var output = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        try {
+            new MiniVm(instructions, output).Run();
+        } catch (RuntimeException | Error e) {
+            output.println(e.getClass().getName());
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertEquals("LIT 6; WRT", optimize(1, "LIT 2; LIT 3; MUL; WRT"));
+        // (1 + 2) * (10 - 4) / 4
+        assertEquals("LIT 4; WRT", optimize(1, "LIT 1; LIT 2; ADD; LIT 10; LIT 4; SUB; MUL; LIT 4; DIV; WRT"));
+        assertEquals("LIT 1; LIT 0; DIV; WRT", optimize(1, "LIT 1; LIT 0; DIV; WRT"));
+        assertEquals("LIT 7; LIT 0; ADD", optimize(0, "LIT 7; LIT 0; ADD"));
+    }
+
+    @Test
+    public void testSimplification() {
+        assertEquals("LIT 9; LOD 0; WRT", optimize(2, "LIT 9; LOD 0; LIT 0; ADD; LIT 1; MUL; LIT 1; DIV; WRT"));
+        assertEquals("LIT 9; LOD 0; LIT 0; ADD; WRT", optimize(1, "LIT 9; LOD 0; LIT 0; ADD; WRT"));
+        assertEquals("LIT 1; LIT 2; WRT", optimize(2, "LIT 1; LIT 2; LOD 0; STO 0; WRT"));
+        // 折叠出来的 LIT 0 接着化简
+        assertEquals("LIT 5; WRT", optimize(2, "LIT 5; LIT 3; LIT 3; SUB; ADD; WRT"));
+    }
+
+    @Test
+    public void testFaultsKept() {
+        // LIT 0; ADD 下面没有数，运行时会出错，不能删
+        assertEquals("LIT 0; ADD; WRT", optimize(2, "LIT 0; ADD; WRT"));
+        // 越界之后的都不动
+        assertEquals("LIT 1; LOD 3; LIT 1; LIT 2; ADD", optimize(2, "LIT 1; LOD 3; LIT 1; LIT 2; ADD"));
+    }
+
+    @Test
+    public void testReport() {
+        var optimizer = new Optimizer(2);
+        optimizer.optimize(parse("LIT 1; LIT 2; ADD; WRT"));
+        optimizer.optimize(parse("LIT 1; LOD 0; STO 0; LOD 0; LIT 0; ADD; WRT"));
+        var report = optimizer.report();
+        assertTrue(report, report.contains("11 -> 5 instructions (-6)"));
+        assertTrue(report, report.contains("2 by constant folding, 2 by algebraic simplification, 2 redundant"));
+    }
+
+    @Test
+    public void testSameOutput() {
+        var random = new Random(7);
+        var ops = Operation.values();
+        for (int i = 0; i < 2000; i++) {
+            var instructions = new ArrayList<Instruction>();
+            int depth = 0;
+            for (int j = random.nextInt(30); j >= 0; j--) {
+                // 常数多取 0 和 1，好碰上化简
+                var opt = depth < 2 ? Operation.LIT : ops[1 + random.nextInt(ops.length - 1)];
+                int x = opt == Operation.LIT ? random.nextInt(5) - 1 : random.nextInt(depth + 1);
+                instructions.add(new Instruction(opt, x));
+                depth += opt == Operation.LIT || opt == Operation.LOD ? 1 : -1;
+            }
+            var expected = run(instructions);
+            assertEquals(instructions.toString(), expected, run(new Optimizer(2).optimize(instructions)));
+        }
+    }
+}
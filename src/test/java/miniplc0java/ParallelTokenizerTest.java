@@ -0,0 +1,131 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.ParallelTokenizer;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.Tokenizer;
+
+public class ParallelTokenizerTest {
+
+    // 跨行的字符串里故意放了引号、注释和像代码的东西，切分点落在里面时猜测会出错
+    private static final String[] PIECES = {
+            "let x = 1;\n",
+            "fn 函数(a: int) -> int { return a * 2; }\n",
+            "// 注释里有 \" 引号\n",
+            "let s = \"第一行\n  let y = \\\"假的\\\" ; // 不是注释\n\" ;\n",
+            "let t = \"\n\"\n",
+            "let c = '\"' ; let d = '\\'' ;\n",
+            "\"\n\"\n\"\n\"\n",
+            "while x >= 1.5e3 { x = x - 1; }\n",
+            "\n\n",
+    };
+
+    private static MappedStringIter mapped(String source) {
+        return new MappedStringIter(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<Token> toList(TokenBuffer buffer) {
+        var tokens = new ArrayList<Token>();
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.get(i));
+        }
+        return tokens;
+    }
+
+    private static String randomSource(Random random, int pieces) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            sb.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 用各种段大小并行解析，结果（或者错误）要和顺序解析完全一样
+     */
+    private static void assertSameAsSequential(String source, ForkJoinPool pool) {
+        TokenBuffer expected = null;
+        TokenizeError expectedError = null;
+        try {
+            expected = new Tokenizer(mapped(source)).tokenizeAll();
+        } catch (TokenizeError e) {
+            expectedError = e;
+        }
+        for (int chunkSize : new int[] { 1, 7, 16, 50, 200 }) {
+            try {
+                var actual = ParallelTokenizer.tokenize(mapped(source), pool, chunkSize);
+                if (expected == null) {
+                    fail("expected " + expectedError + " with chunk size " + chunkSize);
+                }
+                assertEquals("chunk size " + chunkSize, toList(expected), toList(actual));
+            } catch (TokenizeError e) {
+                if (expectedError == null) {
+                    throw new AssertionError("unexpected error with chunk size " + chunkSize, e);
+                }
+                assertEquals(expectedError.getErr(), e.getErr());
+                assertEquals(expectedError.getPos(), e.getPos());
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSequential() {
+        var random = new Random(42);
+        var pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 50; round++) {
+                assertSameAsSequential(randomSource(random, 1 + random.nextInt(40)), pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrorsMatchSequential() {
+        var random = new Random(7);
+        var pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                var source = randomSource(random, 20);
+                // 在中间插一个坏掉的输入
+                int at = source.indexOf('\n', random.nextInt(source.length())) + 1;
+                assertSameAsSequential(source.substring(0, at) + "let z = 1 ? 2;\n" + source.substring(at), pool);
+                // 或者一个没有结尾的字符串
+                assertSameAsSequential(source.substring(0, at) + "\"" + source.substring(at), pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 机器生成的一整行，分成很多段并行解析；以前每个 token 的列号都从行首数起，这里要跑好几分钟
+     */
+    @Test(timeout = 30000)
+    public void testOneLongLine() throws TokenizeError {
+        var source = "fn main() -> void { x = 1" + " + 12345 * 变量".repeat(100000) + "; }\n";
+        var expected = new Tokenizer(mapped(source)).tokenizeAll();
+        var pool = new ForkJoinPool(4);
+        try {
+            var actual = ParallelTokenizer.tokenize(mapped(source), pool, 1 << 16);
+            assertEquals(toList(expected), toList(actual));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+
+import org.junit.Test;
+
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.Pos;
+
+public class StringIterTest {
+
+    /**
+     * 每次最多只给一个字符的 Reader，模拟慢慢到达的输入
+     */
+    private static class TrickleReader extends Reader {
+        private final String source;
+        private int pos = 0;
+        int reads = 0;
+
+        TrickleReader(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            reads++;
+            if (pos >= source.length()) {
+                return -1;
+            }
+            cbuf[off] = source.charAt(pos++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testPositions() {
+        var it = new StringIter("ab\ncd");
+        assertEquals('a', it.nextChar());
+        assertEquals('b', it.nextChar());
+        assertEquals(0, it.currentPos().row);
+        assertEquals(2, it.currentPos().col);
+        assertEquals(1, it.nextPos().row);
+        assertEquals(0, it.nextPos().col);
+        assertEquals('\n', it.nextChar());
+        assertEquals(1, it.currentPos().row);
+        assertEquals(0, it.currentPos().col);
+        assertEquals(0, it.previousPos().row);
+        assertEquals(2, it.previousPos().col);
+        assertEquals('c', it.peekChar());
+        assertEquals('c', it.nextChar());
+        assertEquals('d', it.nextChar());
+        assertTrue(it.isEOF());
+        assertEquals(0, it.nextChar());
+    }
+
+    @Test
+    public void testUnreadAcrossLine() {
+        var it = new StringIter("a\nb");
+        it.nextChar();
+        it.nextChar();
+        it.unreadLast();
+        assertEquals(0, it.currentPos().row);
+        assertEquals(1, it.currentPos().col);
+        assertEquals('\n', it.nextChar());
+        it.nextChar();
+        it.unreadLast();
+        assertEquals('b', it.peekChar());
+    }
+
+    @Test
+    public void testLazyRead() throws Exception {
+        var reader = new TrickleReader("foo main");
+        var tokenizer = new Tokenizer(new StringIter(reader));
+        assertEquals(TokenType.IDENT, tokenizer.nextToken().getTokenType());
+        // 第一个 token 出来的时候后面的输入还没有读
+        assertTrue(reader.reads < "foo main".length());
+        assertEquals(TokenType.IDENT, tokenizer.nextToken().getTokenType());
+        assertEquals(TokenType.EOF, tokenizer.nextToken().getTokenType());
+    }
+
+    @Test
+    public void testLongInputCrossesWindow() {
+        var sb = new StringBuilder();
+        int lines = 50000;
+        for (int i = 0; i < lines; i++) {
+            sb.append("let x").append(i).append(";\n");
+        }
+        var it = new StringIter(sb.toString());
+        int newlines = 0;
+        while (!it.isEOF()) {
+            if (it.nextChar() == '\n') {
+                newlines++;
+            }
+        }
+        assertEquals(lines, newlines);
+        assertEquals(lines, it.currentPos().row);
+        assertEquals(0, it.nextChar());
+    }
+
+    @Test
+    public void testPackedPositions() {
+        assertEquals(new Pos(3, 7), Pos.unpack(Pos.pack(3, 7)));
+        assertEquals(new Pos(123456, 0), Pos.unpack(Pos.pack(123456, 0)));
+        var it = new StringIter("x\ny");
+        it.nextChar();
+        it.nextChar();
+        assertEquals(Pos.pack(1, 0), it.currentPosPacked());
+        assertEquals(Pos.pack(0, 1), it.previousPosPacked());
+        assertEquals(Pos.pack(1, 1), it.nextPosPacked());
+    }
+
+    @Test
+    public void testCommentsDoNotGrowWindow() throws Exception {
+        var sb = new StringBuilder("let a");
+        for (int i = 0; i < 100000; i++) {
+            sb.append("\n// comment line ").append(i);
+        }
+        // 一行就比窗口长的注释
+        sb.append("\n//").append("x".repeat(1 << 20)).append("\n;");
+        var it = new StringIter(sb.toString());
+        var tokenizer = new Tokenizer(it);
+        assertEquals(TokenType.LET_KW, tokenizer.nextToken().getTokenType());
+        assertEquals(TokenType.IDENT, tokenizer.nextToken().getTokenType());
+        assertEquals(TokenType.SEMICOLON, tokenizer.nextToken().getTokenType());
+        assertEquals(TokenType.EOF, tokenizer.nextToken().getTokenType());
+        assertEquals(1 << 16, it.windowSize());
+    }
+}
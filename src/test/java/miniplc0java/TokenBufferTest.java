@@ -0,0 +1,120 @@
+package miniplc0java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.LineWriter;
+
+public class TokenBufferTest {
+
+    private static final String SAMPLE = "// 注释\n"
+            + "fn 主函数(a: int) -> double {\n"
+            + "    let s = \"跨\n行\" ; let x = 1.25e1 + 42 * 'c';\n"
+            + "    return a >= 0 != 1 <= 2 ;\n"
+            + "}";
+
+    private static List<Token> tokenizeAll(StringIter iter) throws TokenizeError {
+        var tokenizer = new Tokenizer(iter);
+        var tokens = new ArrayList<Token>();
+        while (true) {
+            var token = tokenizer.nextToken();
+            tokens.add(token);
+            if (token.getTokenType() == TokenType.EOF) {
+                return tokens;
+            }
+        }
+    }
+
+    private static List<Token> toList(TokenBuffer buffer) {
+        var tokens = new ArrayList<Token>();
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.get(i));
+        }
+        return tokens;
+    }
+
+    private static MappedStringIter mapped(String source) {
+        return new MappedStringIter(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testStreamingBufferMatchesTokenizer() throws TokenizeError {
+        var expected = tokenizeAll(new StringIter(SAMPLE));
+        var buffer = new Tokenizer(new StringIter(SAMPLE)).tokenizeAll();
+        assertEquals(expected, toList(buffer));
+    }
+
+    @Test
+    public void testMappedBufferMatchesTokenizer() throws TokenizeError {
+        var expected = tokenizeAll(mapped(SAMPLE));
+        var buffer = new Tokenizer(mapped(SAMPLE)).tokenizeAll();
+        assertEquals(expected, toList(buffer));
+    }
+
+    @Test
+    public void testColumnAccess() throws TokenizeError {
+        var buffer = new Tokenizer(new StringIter("a\n  bb 12\n")).tokenizeAll();
+        assertEquals(4, buffer.size());
+        assertEquals(TokenType.UINT_LITERAL, buffer.getTokenType(2));
+        assertEquals(12, buffer.getValue(2));
+        assertEquals(1, buffer.getStartPos(2).row);
+        assertEquals(5, buffer.getStartPos(2).col);
+        assertEquals(TokenType.EOF, buffer.getTokenType(3));
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() throws TokenizeError {
+        var sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append("x").append(i).append(" = ").append(i).append(";\n");
+        }
+        var source = sb.toString();
+        var expected = tokenizeAll(mapped(source));
+        assertEquals(expected, toList(new Tokenizer(mapped(source)).tokenizeAll()));
+        assertEquals(expected, toList(new Tokenizer(new StringIter(source)).tokenizeAll()));
+    }
+
+    @Test
+    public void testPositionsInAnyOrder() throws TokenizeError {
+        // 列号从上一次换算的地方接着数，倒着取、跳着取、跨行取都要和顺序解析一样
+        var source = SAMPLE + " 长长的一行" + " + 变量 * 'é'".repeat(200) + "\n" + SAMPLE;
+        var expected = tokenizeAll(mapped(source));
+        var buffer = new Tokenizer(mapped(source)).tokenizeAll();
+        for (int i = buffer.size() - 1; i >= 0; i--) {
+            assertEquals(expected.get(i), buffer.get(i));
+        }
+        for (int i = 0; i < buffer.size(); i += 7) {
+            assertEquals(expected.get(i), buffer.get(i));
+            assertEquals(expected.get(i / 2), buffer.get(i / 2));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testWriteToOnLongLine() throws TokenizeError {
+        var source = "fn main() -> void { x = 1" + " + 12345 * 变量".repeat(100000) + "; }\n";
+        var expected = new ByteArrayOutputStream();
+        var out = new LineWriter(expected);
+        new Tokenizer(mapped(source)).writeAll(out);
+        out.flush();
+
+        var actual = new ByteArrayOutputStream();
+        out = new LineWriter(actual);
+        new Tokenizer(mapped(source)).tokenizeAll().writeTo(out);
+        out.flush();
+        assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -3,6 +3,177 @@ package miniplc0java;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.ParallelTokenizer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.LineWriter;
+
 public class TokenizerTest {
 
+    private static final String SAMPLE = "let s: int = 12;\n"
+            + "fn 主函数(a: int) -> void {\n"
+            + "    let t = \"你好\\n世界\" ;\n"
+            + "    let c = '\\'' ; let d = 'x';\n"
+            + "}\n";
+
+    private static List<Token> tokenizeAll(StringIter iter) throws TokenizeError {
+        var tokenizer = new Tokenizer(iter);
+        var tokens = new ArrayList<Token>();
+        while (true) {
+            var token = tokenizer.nextToken();
+            tokens.add(token);
+            if (token.getTokenType() == TokenType.EOF) {
+                return tokens;
+            }
+        }
+    }
+
+    private static MappedStringIter mapped(String source) {
+        return new MappedStringIter(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testMappedMatchesStreaming() throws TokenizeError {
+        var streaming = tokenizeAll(new StringIter(SAMPLE));
+        var mapped = tokenizeAll(mapped(SAMPLE));
+        assertEquals(streaming, mapped);
+    }
+
+    @Test
+    public void testMappedOffsetsAreBytes() throws TokenizeError {
+        var tokens = tokenizeAll(mapped("\"你好\" x"));
+        var str = tokens.get(0);
+        assertEquals(TokenType.STRING_LITERAL, str.getTokenType());
+        assertEquals(0, str.getStartOffset());
+        assertEquals(8, str.getEndOffset());
+        assertEquals("你好", str.getValue());
+        var ident = tokens.get(1);
+        assertEquals(9, ident.getStartOffset());
+        // 列号还是按字符算
+        assertEquals(5, ident.getStartPos().col);
+        assertEquals("x", ident.getValue());
+    }
+
+    @Test
+    public void testStringAndCharLiterals() throws TokenizeError {
+        var tokens = tokenizeAll(new StringIter("\"a\\\"b\" '\\n'"));
+        assertEquals(TokenType.STRING_LITERAL, tokens.get(0).getTokenType());
+        assertEquals("a\\\"b", tokens.get(0).getValue());
+        assertEquals(TokenType.CHAR_LITERAL, tokens.get(1).getTokenType());
+        assertEquals("\\n", tokens.get(1).getValue());
+    }
+
+    @Test(expected = TokenizeError.class)
+    public void testUnterminatedString() throws TokenizeError {
+        tokenizeAll(mapped("\"abc"));
+    }
+
+    @Test
+    public void testNumbers() throws TokenizeError {
+        var tokens = tokenizeAll(new StringIter("0 4294967295 1.5 2.5e-3 3.0E2"));
+        assertEquals(0, tokens.get(0).getValue());
+        assertEquals(-1, tokens.get(1).getValue());
+        assertEquals(TokenType.DOUBLE_LITERAL, tokens.get(2).getTokenType());
+        assertEquals(1.5, tokens.get(2).getValue());
+        assertEquals(2.5e-3, tokens.get(3).getValue());
+        assertEquals(300.0, tokens.get(4).getValue());
+    }
+
+    @Test(expected = TokenizeError.class)
+    public void testIntegerOverflow() throws TokenizeError {
+        tokenizeAll(new StringIter("4294967296"));
+    }
+
+    @Test
+    public void testDoubleWithLargeIntegerPart() throws TokenizeError {
+        // 整数部分超出了 u32，但这是浮点数
+        var tokens = tokenizeAll(new StringIter("12345678901.5 4294967296.0e2 99999999999999999999999.25"));
+        assertEquals(TokenType.DOUBLE_LITERAL, tokens.get(0).getTokenType());
+        assertEquals(12345678901.5, tokens.get(0).getValue());
+        assertEquals(429496729600.0, tokens.get(1).getValue());
+        assertEquals(99999999999999999999999.25, tokens.get(2).getValue());
+    }
+
+    @Test
+    public void testCommentsAreSkipped() throws TokenizeError {
+        var tokens = tokenizeAll(new StringIter("a / b // a comment\n/ c // at EOF"));
+        var types = new ArrayList<TokenType>();
+        for (var token : tokens) {
+            types.add(token.getTokenType());
+        }
+        assertEquals(List.of(TokenType.IDENT, TokenType.DIV, TokenType.IDENT, TokenType.DIV, TokenType.IDENT,
+                TokenType.EOF), types);
+        assertEquals(1, tokens.get(3).getStartPos().row);
+    }
+
+    @Test
+    public void testKeywords() throws TokenizeError {
+        var source = "fn let const as while if else return break continue";
+        var expected = List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW, TokenType.AS_KW,
+                TokenType.WHILE_KW, TokenType.IF_KW, TokenType.ELSE_KW, TokenType.RETURN_KW, TokenType.BREAK_KW,
+                TokenType.CONTINUE_KW);
+        var tokens = tokenizeAll(mapped(source));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), tokens.get(i).getTokenType());
+        }
+        assertEquals("continue", tokens.get(9).getValue());
+    }
+
+    @Test
+    public void testKeywordLookalikesAreIdents() throws TokenizeError {
+        var tokens = tokenizeAll(new StringIter("Fn fnn iff lets els_e returns ifn f"));
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            assertEquals(TokenType.IDENT, tokens.get(i).getTokenType());
+        }
+    }
+
+    @Test
+    public void testWriteAllMatchesToString() throws TokenizeError {
+        var source = SAMPLE + "let big = 2147483647 + 0 - 3.25e2 * 1.0 / 'a'; // 注释\n";
+        var expected = new StringBuilder();
+        var tokens = tokenizeAll(new StringIter(source));
+        for (var token : tokens.subList(0, tokens.size() - 1)) {
+            expected.append(token).append(System.lineSeparator());
+        }
+
+        var iters = List.of(new StringIter(source), new StringIter(new StringReader(source)), mapped(source));
+        for (var iter : iters) {
+            var bytes = new ByteArrayOutputStream();
+            var out = new LineWriter(bytes);
+            new Tokenizer(iter).writeAll(out);
+            out.flush();
+            assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new LineWriter(bytes, 16);
+        ParallelTokenizer.tokenize(mapped(source)).writeTo(out);
+        out.flush();
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLineWriterIntegers() {
+        var bytes = new ByteArrayOutputStream();
+        var out = new LineWriter(bytes, 8);
+        var expected = new StringBuilder();
+        for (int x : new int[] { 0, 7, -7, 10, 99, 100, -1000000000, 1999999999, Integer.MAX_VALUE,
+                Integer.MIN_VALUE }) {
+            out.append(x).append(' ');
+            expected.append(x).append(' ');
+        }
+        out.flush();
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
 }
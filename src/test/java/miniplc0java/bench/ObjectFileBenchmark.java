@@ -0,0 +1,84 @@
+package miniplc0java.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.ObjectFile;
+import miniplc0java.instruction.Operation;
+
+/**
+ * 比较文本输出和二进制目标文件：文件大小、写出的时间、读回指令的时间
+ * <p>
+ * 文本按 App 原来的方式一条条 println，读回时逐行解析；二进制用 ObjectFile 一次写出，读回时映射进内存整块拷贝。
+ * <p>
+ * 用法：ObjectFileBenchmark [重复次数，默认 1000000] [轮数，默认 5]
+ */
+public class ObjectFileBenchmark {
+
+    private static void writeText(List<Instruction> instructions, Path path) throws IOException {
+        try (var output = new PrintStream(new FileOutputStream(path.toFile()))) {
+            for (Instruction instruction : instructions) {
+                output.println(instruction.toString());
+            }
+        }
+    }
+
+    private static List<Instruction> readText(Path path) throws IOException {
+        var instructions = new ArrayList<Instruction>();
+        try (var reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    instructions.add(new Instruction(Operation.valueOf(line)));
+                } else {
+                    instructions.add(new Instruction(Operation.valueOf(line.substring(0, space)),
+                            Integer.parseInt(line.substring(space + 1))));
+                }
+            }
+        }
+        return instructions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        var instructions = VmBenchmark.arithmetic(n);
+        var text = Files.createTempFile("miniplc0", ".txt");
+        var binary = Files.createTempFile("miniplc0", ".o0");
+        try {
+            System.out.printf("program: %d instructions%n", instructions.size());
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                writeText(instructions, text);
+                long textWrite = System.nanoTime() - start;
+                start = System.nanoTime();
+                ObjectFile.write(instructions, binary);
+                long binaryWrite = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int textSize = readText(text).size();
+                long textRead = System.nanoTime() - start;
+                start = System.nanoTime();
+                int binarySize = ObjectFile.read(binary).size();
+                long binaryRead = System.nanoTime() - start;
+                if (textSize != instructions.size() || binarySize != instructions.size()) {
+                    throw new IllegalStateException("Wrong number of instructions");
+                }
+
+                System.out.printf("round %d: write text %.1f ms, binary %.1f ms; load text %.1f ms, binary %.1f ms%n",
+                        round, textWrite / 1e6, binaryWrite / 1e6, textRead / 1e6, binaryRead / 1e6);
+            }
+            System.out.printf("size: text %d bytes, binary %d bytes%n", Files.size(text), Files.size(binary));
+        } finally {
+            Files.delete(text);
+            Files.delete(binary);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package miniplc0java.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.TextSink;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.LineWriter;
+
+/**
+ * 测 -t 和 -l 的文本输出有多快：每个 token / 指令 println 一个 toString，和边解析边写进 LineWriter 比
+ * <p>
+ * token 用一个生成的大约有 token 数个 token 的文件，指令用 VmBenchmark.arithmetic。
+ * 输出写到临时文件里，时间包括词法分析。
+ * <p>
+ * 用法：OutputBenchmark [token 数，默认 1000000] [轮数，默认 5]
+ */
+public class OutputBenchmark {
+
+    private interface Job {
+        void run(PrintStream output) throws IOException, TokenizeError;
+    }
+
+    private static StringIter open(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedStringIter(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static void run(String name, long items, Path output, int rounds, Job job)
+            throws IOException, TokenizeError {
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            try (var stream = new PrintStream(new FileOutputStream(output.toFile()))) {
+                job.run(stream);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-22s round %d: %.3f s, %.2f M lines/s, %d bytes%n", name, round, seconds,
+                    items / seconds / 1e6, Files.size(output));
+        }
+    }
+
+    /**
+     * 原来的 Instruction.toString
+     */
+    private static String formatInstruction(Instruction inst) {
+        if (inst.getOpt().hasOperand()) {
+            return String.format("%s %s", inst.getOpt(), inst.getX());
+        }
+        return String.format("%s", inst.getOpt());
+    }
+
+    public static void main(String[] args) throws IOException, TokenizeError {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // 先用一个函数估计每个 token 多少个字符
+        var sample = new StringBuilder();
+        SourceGenerator.appendFunction(sample, 1000);
+        int sampleTokens = new Tokenizer(new StringIter(sample.toString())).tokenizeAll().size() - 1;
+        var input = SourceGenerator.generateFile((long) count * sample.length() / sampleTokens);
+        long tokens = new Tokenizer(open(input)).tokenizeAll().size() - 1;
+        System.out.printf("input: %d bytes, %d tokens%n", Files.size(input), tokens);
+
+        var output = Files.createTempFile("c0-bench-", ".out");
+        try {
+            run("tokens: println", tokens, output, rounds, stream -> {
+                var buffer = new Tokenizer(open(input)).tokenizeAll();
+                for (int i = 0; i < buffer.size() - 1; i++) {
+                    stream.println(buffer.get(i).toString());
+                }
+            });
+            run("tokens: LineWriter", tokens, output, rounds, stream -> {
+                var out = new LineWriter(stream);
+                new Tokenizer(open(input)).writeAll(out);
+                out.flush();
+            });
+
+            List<Instruction> instructions = VmBenchmark.arithmetic(count / 10);
+            run("instructions: println", instructions.size(), output, rounds, stream -> {
+                for (var inst : instructions) {
+                    stream.println(formatInstruction(inst));
+                }
+            });
+            run("instructions: TextSink", instructions.size(), output, rounds, stream -> {
+                var sink = new TextSink(new LineWriter(stream));
+                for (var inst : instructions) {
+                    sink.emit(inst);
+                }
+                sink.finish();
+            });
+        } finally {
+            Files.delete(output);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package miniplc0java.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 生成用来跑性能测试的 C0 程序，内容是一堆长得差不多的函数
+ */
+public class SourceGenerator {
+
+    /**
+     * 生成第 i 个函数
+     */
+    public static void appendFunction(StringBuilder sb, int i) {
+        sb.append("// function number ").append(i).append('\n');
+        sb.append("fn func_").append(i).append("(a: int, b: int) -> int {\n");
+        sb.append("    let counter_").append(i).append(": int = a * 3 + b / 7 - ").append(i * 31 + 7).append(";\n");
+        sb.append("    const limit: int = ").append(i % 1000).append(";\n");
+        sb.append("    while counter_").append(i).append(" > limit {\n");
+        sb.append("        counter_").append(i).append(" = counter_").append(i).append(" - 1;\n");
+        sb.append("        putstr(\"iteration of func_").append(i).append("\\n\");\n");
+        sb.append("    }\n");
+        sb.append("    if a == b {\n");
+        sb.append("        return -a;\n");
+        sb.append("    } else if a >= b {\n");
+        sb.append("        return (a - b) * '0';\n");
+        sb.append("    } else {\n");
+        sb.append("        return func_").append(i).append("(b, a);\n");
+        sb.append("    }\n");
+        sb.append("}\n\n");
+    }
+
+    /**
+     * 生成大约 size 个字符的程序
+     */
+    public static String generate(long size) {
+        var sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) {
+            appendFunction(sb, i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 生成大约 size 字节的程序，写到临时文件里
+     */
+    public static Path generateFile(long size) throws IOException {
+        var path = Files.createTempFile("c0-bench-", ".c0");
+        path.toFile().deleteOnExit();
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            var sb = new StringBuilder();
+            long written = 0;
+            for (int i = 0; written < size; i++) {
+                sb.setLength(0);
+                appendFunction(sb, i);
+                writer.append(sb);
+                written += sb.length();
+            }
+        }
+        return path;
+    }
+}
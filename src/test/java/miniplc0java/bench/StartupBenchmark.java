@@ -0,0 +1,86 @@
+package miniplc0java.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 测 fatJar 冷启动的时间：每次起一个新的 JVM 编译一个小文件，记下第一个字节输出的时间和进程退出的时间
+ * <p>
+ * 分别测不用 CDS、只用 JDK 自带的 CDS 和用 cdsArchive 打出来的 AppCDS 归档三种情况。
+ * -l 目前没有输出，第一个字节的时间就是退出的时间。
+ * <p>
+ * 用法：StartupBenchmark [jar，默认 build/libs/miniplc0java.jar] [归档，默认 build/libs/miniplc0java.jsa] [轮数，默认 20]
+ */
+public class StartupBenchmark {
+
+    /**
+     * 跑一次，返回 {第一个字节的时间, 退出的时间}，单位纳秒
+     */
+    private static long[] launch(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        long first = -1;
+        try (var in = process.getInputStream()) {
+            var buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                if (n > 0 && first < 0) {
+                    first = System.nanoTime() - start;
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        long exit = System.nanoTime() - start;
+        if (exitCode != 0) {
+            throw new IllegalStateException(command + " exited with " + exitCode);
+        }
+        return new long[] { first < 0 ? exit : first, exit };
+    }
+
+    private static void run(String name, List<String> jvmOptions, String jar, String mode, Path input, int rounds)
+            throws IOException, InterruptedException {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList("-jar", jar, mode, input.toString(), "-o", "-"));
+
+        // 第一次把文件读进页缓存，不算
+        launch(command);
+        long[] first = new long[rounds];
+        long[] exit = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            var times = launch(command);
+            first[round] = times[0];
+            exit[round] = times[1];
+        }
+        Arrays.sort(first);
+        Arrays.sort(exit);
+        System.out.printf("%-8s %s: first output median %.1f ms, min %.1f ms; exit median %.1f ms, min %.1f ms%n",
+                name, mode, first[rounds / 2] / 1e6, first[0] / 1e6, exit[rounds / 2] / 1e6, exit[0] / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var jar = args.length > 0 ? args[0] : "build/libs/miniplc0java.jar";
+        var archive = args.length > 1 ? args[1] : "build/libs/miniplc0java.jsa";
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        var input = Files.createTempFile("c0-startup-", ".c0");
+        input.toFile().deleteOnExit();
+        Files.writeString(input, SourceGenerator.generate(4096));
+
+        var appCds = Files.exists(Path.of(archive));
+        if (!appCds) {
+            System.out.println(archive + " not found, run `gradle cdsArchive` first; skipping AppCDS");
+        }
+        for (var mode : new String[] { "-t", "-l" }) {
+            run("no-cds", List.of("-Xshare:off"), jar, mode, input, rounds);
+            run("jdk-cds", List.of("-Xshare:auto"), jar, mode, input, rounds);
+            if (appCds) {
+                run("app-cds", List.of("-Xshare:on", "-XX:SharedArchiveFile=" + archive), jar, mode, input, rounds);
+            }
+        }
+    }
+}
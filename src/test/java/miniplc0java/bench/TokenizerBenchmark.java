@@ -0,0 +1,64 @@
+package miniplc0java.bench;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.MappedStringIter;
+import miniplc0java.tokenizer.ParallelTokenizer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+
+/**
+ * 在一个生成的大文件上测 Tokenizer 每秒能出多少 token
+ * <p>
+ * 用法：TokenizerBenchmark [文件大小(MB)，默认 20] [轮数，默认 5]
+ */
+public class TokenizerBenchmark {
+
+    private static long countTokens(StringIter iter) throws TokenizeError {
+        var tokenizer = new Tokenizer(iter);
+        long count = 0;
+        while (tokenizer.nextToken().getTokenType() != TokenType.EOF) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long bulkTokens(StringIter iter, boolean parallel) throws TokenizeError {
+        var tokens = parallel ? ParallelTokenizer.tokenize((MappedStringIter) iter) : new Tokenizer(iter).tokenizeAll();
+        return tokens.size() - 1;
+    }
+
+    private static void run(String name, Path path, boolean mapped, boolean bulk, boolean parallel, int rounds)
+            throws IOException, TokenizeError {
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            long tokens;
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                StringIter iter = mapped
+                        ? new MappedStringIter(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+                        : new StringIter(channel);
+                tokens = bulk ? bulkTokens(iter, parallel) : countTokens(iter);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-10s round %d: %d tokens in %.3f s, %.2f M tokens/s%n", name, round, tokens,
+                    seconds, tokens / seconds / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, TokenizeError {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 20;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        var path = SourceGenerator.generateFile(megabytes << 20);
+        System.out.printf("input: %d bytes%n", Files.size(path));
+        run("streaming", path, false, false, false, rounds);
+        run("mapped", path, true, false, false, rounds);
+        run("bulk", path, true, true, false, rounds);
+        run("parallel", path, true, true, true, rounds);
+    }
+}
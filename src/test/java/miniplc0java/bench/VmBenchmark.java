@@ -0,0 +1,76 @@
+package miniplc0java.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.MiniVm.Engine;
+
+/**
+ * 在一长串算术指令上测 MiniVm 每条指令的耗时和分配的内存
+ * <p>
+ * 用法：VmBenchmark [重复次数，默认 1000000] [轮数，默认 5] [interpreter|compiled，默认 interpreter]
+ * <p>
+ * 编译执行时第一轮包含翻译的时间，之后每轮重用翻译好的程序
+ */
+public class VmBenchmark {
+
+    /**
+     * 生成 x = 0; 重复 n 次 x = x + (i * 3 - 1000) / 7; 最后输出 x
+     * <p>
+     * 每次重复 10 条指令，数值大多在 Integer 的缓存范围之外
+     */
+    public static List<Instruction> arithmetic(int n) {
+        var instructions = new ArrayList<Instruction>(n * 10 + 2);
+        instructions.add(new Instruction(Operation.LIT, 0));
+        for (int i = 0; i < n; i++) {
+            instructions.add(new Instruction(Operation.LOD, 0));
+            instructions.add(new Instruction(Operation.LIT, i));
+            instructions.add(new Instruction(Operation.LIT, 3));
+            instructions.add(new Instruction(Operation.MUL));
+            instructions.add(new Instruction(Operation.LIT, 1000));
+            instructions.add(new Instruction(Operation.SUB));
+            instructions.add(new Instruction(Operation.LIT, 7));
+            instructions.add(new Instruction(Operation.DIV));
+            instructions.add(new Instruction(Operation.ADD));
+            instructions.add(new Instruction(Operation.STO, 0));
+        }
+        instructions.add(new Instruction(Operation.WRT));
+        return instructions;
+    }
+
+    static long allocatedBytes() {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        var engine = args.length > 2 ? Engine.valueOf(args[2].toUpperCase()) : Engine.INTERPRETER;
+        var instructions = arithmetic(n);
+        var out = new PrintStream(OutputStream.nullOutputStream());
+        System.out.printf("program: %d instructions, %s%n", instructions.size(), engine);
+        MiniVm.pairFrequencies(instructions).entrySet().stream().limit(5)
+                .forEach(e -> System.out.printf("  %-10s %d%n", e.getKey(), e.getValue()));
+        long loadStart = System.nanoTime();
+        var vm = new MiniVm(instructions, out, engine);
+        long loadNanos = System.nanoTime() - loadStart;
+        System.out.printf("load: %.1f ms%n", loadNanos / 1e6);
+        for (int round = 0; round < rounds; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            vm.Run();
+            long nanos = System.nanoTime() - start;
+            bytes = allocatedBytes() - bytes;
+            System.out.printf("round %d: %.2f ns/instruction, %.2f bytes/instruction, %.0f MB/s allocated%n", round,
+                    (double) nanos / instructions.size(), (double) bytes / instructions.size(),
+                    bytes / (nanos / 1e9) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package miniplc0java.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.vm.MiniVm;
+import miniplc0java.vm.VmOutput;
+
+/**
+ * 测 MiniVm 执行 WRT 的速度：printf 到 PrintStream 和写进 VmOutput 比，输出写到临时文件里
+ * <p>
+ * 用法：WrtBenchmark [WRT 条数，默认 1000000] [轮数，默认 5]
+ */
+public class WrtBenchmark {
+
+    /**
+     * LIT x; WRT 重复 n 次，数有正有负，长短不一
+     */
+    public static List<Instruction> writes(int n) {
+        var instructions = new ArrayList<Instruction>(2 * n);
+        for (int i = 0; i < n; i++) {
+            instructions.add(new Instruction(Operation.LIT, (i % 2 == 0 ? 1 : -1) * i * (i % 1000)));
+            instructions.add(new Instruction(Operation.WRT));
+        }
+        return instructions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        var instructions = writes(n);
+        var output = Files.createTempFile("c0-bench-", ".out");
+        try {
+            for (var buffered : new boolean[] { false, true }) {
+                for (int round = 0; round < rounds; round++) {
+                    // printf 时给 PrintStream 也加上缓冲，只比格式化和每次调用的开销
+                    try (var stream = new PrintStream(
+                            new BufferedOutputStream(new FileOutputStream(output.toFile()), 64 * 1024))) {
+                        var vm = new MiniVm(instructions, stream);
+                        if (buffered) {
+                            vm.setOutput(new VmOutput(stream));
+                        }
+                        long bytes = VmBenchmark.allocatedBytes();
+                        long start = System.nanoTime();
+                        vm.Run();
+                        stream.flush();
+                        long nanos = System.nanoTime() - start;
+                        bytes = VmBenchmark.allocatedBytes() - bytes;
+                        System.out.printf("%-8s round %d: %.1f ns/WRT, %.1f bytes/WRT allocated%n",
+                                buffered ? "VmOutput" : "printf", round, (double) nanos / n, (double) bytes / n);
+                    }
+                }
+            }
+            System.out.printf("output: %d bytes%n", Files.size(output));
+        } finally {
+            Files.delete(output);
+        }
+    }
+}